@@ -0,0 +1,33 @@
+package ballpointLocating;
+
+import org.opencv.core.Mat;
+
+import strokeData.Coord;
+import videoProcessing.DebugFrameSink;
+
+/**
+ * Interface for the different ways of estimating the position of the 'ballpoint' of the pen within the
+ * image of the matched template (see ProcessVideo.setBallpointDetector()).
+ * 
+ * @author Simon Dicken (Student ID: 1378818)
+ * @version 2014-08-03
+ */
+public interface BallpointDetector {
+	
+	/**
+	 * Method to estimate the ballpoint within the matched template image.
+	 * 
+	 * @param src - the image in which to find the ballpoint (should be the size of the template)
+	 * @return the estimated location of the ballpoint within the source image, or null if it could not be 
+	 * found.
+	 */
+	public Coord findBallpoint(Mat src);
+	
+	/**
+	 * setter for the sink that intermediate images are sent to.
+	 * 
+	 * @param debugSink - the sink to use (null to turn debug output off).
+	 */
+	public void setDebugSink(DebugFrameSink debugSink);
+
+}
@@ -0,0 +1,97 @@
+package ballpointLocating;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.highgui.Highgui;
+import org.opencv.highgui.VideoCapture;
+
+import penFinding.PenLocator;
+import strokeData.Coord;
+import strokeData.TempMatchOutput;
+import videoProcessing.ProcessImage;
+
+/**
+ * A short comparison of the BallpointDetector implementations.  The template is found in each frame of a
+ * video, and each detector is run on the matched template image.  For each detector, the time taken and
+ * the number of frames in which a ballpoint was found are reported.  There is no ground truth for the
+ * ballpoint, so the accuracy of the ContourExtremumDetector is given as its distance from the
+ * BallpointLocator's estimate, in the frames where both found one.
+ *
+ * The video and template default to those in the TestInput folder, or can be given as arguments.
+ *
+ * @author Simon Dicken (Student ID: 1378818)
+ * @version 2014-08-03
+ */
+public class BallpointDetectorMainTest {
+
+	public static void main(String[] args) {
+
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+		String videoFile = (args.length>0) ? args[0] : "../TestInput/test.mp4";
+		String templateFile = (args.length>1) ? args[1] : "../TestInput/template.jpg";
+
+		Mat template = Highgui.imread(templateFile);
+		template = ProcessImage.filterColour(template, ProcessImage.BLACK_LOW_HSV, ProcessImage.BLACK_HIGH_HSV);
+		PenLocator pl = new PenLocator(template);
+
+		//the same valid zone as used by ProcessVideo.
+		Coord zoneTopLeft = new Coord(-10,-10);
+		Coord zoneBottomRight = new Coord(template.cols()/2, template.rows()/2);
+		BallpointDetector[] detectors = {new BallpointLocator(zoneTopLeft, zoneBottomRight),
+				new ContourExtremumDetector(zoneTopLeft, zoneBottomRight)};
+		long[] nanos = new long[detectors.length];
+		int[] found = new int[detectors.length];
+
+		int frames = 0;
+		int compared = 0;
+		double totalDist = 0;
+		double maxDist = 0;
+
+		VideoCapture vid = new VideoCapture(videoFile);
+		if(!vid.isOpened()) {
+			System.out.println("Could not open " + videoFile);
+			return;
+		}
+		Mat frame = new Mat();
+		Mat filtered = new Mat();
+		while(vid.read(frame)) {
+			frames++;
+			ProcessImage.filterColour(frame, ProcessImage.BLACK_LOW_HSV, ProcessImage.BLACK_HIGH_HSV, filtered);
+			TempMatchOutput match = pl.findTemplateGlobal(filtered);
+			Coord pos = match.getBestMatch();
+			Mat patch = frame.submat(pos.getY(), pos.getY()+template.rows(), pos.getX(), pos.getX()+template.cols());
+
+			Coord[] estimates = new Coord[detectors.length];
+			for(int d=0; d<detectors.length; d++) {
+				long start = System.nanoTime();
+				estimates[d] = detectors[d].findBallpoint(patch);
+				nanos[d] += System.nanoTime() - start;
+				if(estimates[d]!=null) {
+					found[d]++;
+				}
+			}
+
+			if(estimates[0]!=null && estimates[1]!=null) {
+				double dist = Math.hypot(estimates[0].getX()-estimates[1].getX(),
+						estimates[0].getY()-estimates[1].getY());
+				totalDist += dist;
+				maxDist = Math.max(maxDist, dist);
+				compared++;
+			}
+		}
+
+		System.out.println("Frames = " + frames);
+		for(int d=0; d<detectors.length; d++) {
+			double msPerFrame = (frames>0) ? nanos[d] / (1e6 * frames) : 0;
+			System.out.println(detectors[d].getClass().getSimpleName() + ": " + String.format("%.3f", msPerFrame)
+					+ "ms per frame (" + String.format("%.0f", (msPerFrame>0) ? 1000/msPerFrame : 0)
+					+ " frames/s), ballpoint found in " + found[d] + " frames");
+		}
+		if(compared>0) {
+			System.out.println("Distance between estimates: mean = " + String.format("%.2f", totalDist/compared)
+					+ ", max = " + String.format("%.2f", maxDist) + " (over " + compared + " frames)");
+		}
+	}
+
+}
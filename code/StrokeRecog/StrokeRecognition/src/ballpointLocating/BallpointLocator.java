@@ -4,20 +4,23 @@ import java.util.ArrayList;
 
 import org.opencv.core.Mat;
 import org.opencv.core.Scalar;
-import org.opencv.highgui.Highgui;
 import org.opencv.imgproc.Imgproc;
 
 import strokeData.Coord;
+import videoProcessing.DebugFrameSink;
+import videoProcessing.ImageWorkspace;
 import videoProcessing.ProcessImage;
 
 /**
  * Class to perform operations related to estimating the position of the 'ballpoint' of the pen (i.e. the 
  * very end point of the pen where it contacts the whiteboard).
+ * The ballpoint is estimated from the intersections of the straight edges of the pen head, found using
+ * the Hough transform.
  * 
  * @author Simon Dicken (Student ID: 1378818)
- * @version 2014-07-16
+ * @version 2014-08-03
  */
-public class BallpointLocator {
+public class BallpointLocator implements BallpointDetector {
 
 	private ArrayList<Coord> ballpointRecord;	//the list of coordinates of the location of the ballpoint in sequence.
 	private Coord validZoneTopLeft; //the coordinates of the top left point of the zone in which a ballpoint is
@@ -34,6 +37,14 @@ public class BallpointLocator {
 	private final int cannyHigh = 250;	//the upper threshold to use in the Canny edge detector.
 	private final int houghThreshold = 10;	//the threshold to use with the Hough transform (a lower value will 
 											//result in more lines being returned from the Hough transform)
+	private int maxLines = 0;	//the maximum number of Hough lines (the strongest) to intersect (0 for no limit).
+	private DebugFrameSink debugSink;	//where to send the annotated edge images (null for no debug output).
+	private int attempts;	//the number of ballpoints that have been looked for (used to name debug images).
+	private final NearestEdgeMap edgeMap = new NearestEdgeMap();	//used to find the nearest edge to a point.
+	
+	//an edge this many pixels or more from the estimated ballpoint (in either direction) is too far away to
+	//be used to correct the estimate.
+	private static final int SHADOW_SEARCH_RADIUS = 10;
 	
 	/**
 	 * Constructor for the BallpointLocator.
@@ -56,31 +67,33 @@ public class BallpointLocator {
 	 * @param src - the image in which to find the ballpoint (should be the size of the template)
 	 * @return the estimated location of the ballpoint within the source image.
 	 */
+	@Override
 	public Coord findBallpoint(Mat src) {
 		
-		Mat dilate = new Mat();
-		Mat detectedEdges = new Mat();
+		//the intermediate images are kept in the thread's workspace so they are reused for every frame.
+		ImageWorkspace ws = ImageWorkspace.get();
+		Mat normalised = ws.getMat("BallpointLocator.normalised");
+		Mat filtered = ws.getMat("BallpointLocator.filtered");
+		Mat dilate = ws.getMat("BallpointLocator.dilate");
+		Mat blurred = ws.getMat("BallpointLocator.blurred");
+		Mat detectedEdges = ws.getMat("BallpointLocator.edges");
+		Mat lines = ws.getMat("BallpointLocator.lines");
 
 		//normalise the source image, then filter the image to only leave the pen head colour, then dilate 
 		//the result to leave an intact pen head.
-		dilate = ProcessImage.normalise(src);
-		dilate = ProcessImage.filterColour(dilate, filterLow, filterHigh);
-		dilate = ProcessImage.dilate(dilate, dilateKSize);
+		ProcessImage.normalise(src, normalised);
+		ProcessImage.filterColour(normalised, filterLow, filterHigh, filtered);
+		ProcessImage.dilate(filtered, dilateKSize, dilate);
 		
 		//blur the image then carry out the edge detection.
-		detectedEdges = ProcessImage.blur(dilate, blurKSize);
-		detectedEdges = ProcessImage.cannyEdge(detectedEdges, cannyHigh, cannyLow);
-
-		//convert the detectEdges Mat to the BGR space
-		Mat edgesBGR = new Mat();
-		Imgproc.cvtColor(detectedEdges, edgesBGR, Imgproc.COLOR_GRAY2BGR);
+		ProcessImage.blur(dilate, blurKSize, blurred);
+		ProcessImage.cannyEdge(blurred, cannyHigh, cannyLow, detectedEdges);
 
 		//perform the Hough transform to determine the lines from the detected edges.
-		Mat lines = new Mat();
 		Imgproc.HoughLines(detectedEdges, lines, 1, Math.PI/180, houghThreshold);
 
 		//use the lines to determine the estimated ballpoint
-		Coord bPoint = ballpointLocate(edgesBGR, lines);
+		Coord bPoint = ballpointLocate(detectedEdges, lines);
 		
 		//if null is returned, the ballpoint could not be located, so don't add it to the record.
 		if(bPoint!=null) {
@@ -95,32 +108,59 @@ public class BallpointLocator {
 	 * Method which uses the Hough transform lines to estimate the ballpoint location.  The intersection
 	 * points of lines that are within a specific zone are averaged to give the estimated ballpoint.
 	 * 
-	 * @param src - the image with the detected edges (as a BGR image)
+	 * The line parameters are copied out of the Mat in one go, and each line is converted to its gradient
+	 * and intercept once (rather than for every pair it is part of), so that the pairwise comparison is 
+	 * done entirely on primitive arrays.
+	 * 
+	 * @param src - the image with the detected edges.
 	 * @param lines - the Hough transform lines Mat.
 	 * @return the estimated coordinates of the ballpoint.
 	 */
 	private Coord ballpointLocate(Mat src, Mat lines) {
 		
 		int num = (int) lines.size().width;
+		//HoughLines returns the lines in order of decreasing strength, so the strongest are the first ones.
+		if(maxLines>0 && num>maxLines) {
+			num = maxLines;
+		}
 		double bPointX = 0.0;
 		double bPointY = 0.0;
 		int count=0;
 		
-		//compare each line to every other line.  If they intersect within the defined valid zone, add the
-		//intersection coordinated to the X and Y ballpoint variables.
-		for(int i=0; i<num; i++) {
-			double[] firstLine = lines.get(0, i);
-			for(int j=i+1; j<num; j++) {
-				double[] secondLine = lines.get(0,  j);
-				Coord intersection = findIntersection(firstLine[0], firstLine[1], secondLine[0], secondLine[1]);
-				if(intersection.getX()>validZoneTopLeft.getX() && intersection.getY()>validZoneTopLeft.getY()
-						&& intersection.getX()<validZoneBottomRight.getX() 
-						&& intersection.getY()<validZoneBottomRight.getY()) {
-					bPointX += intersection.getX();
-					bPointY += intersection.getY();
-					count++;
-				}
-			}	
+		if(num>1) {
+			ImageWorkspace ws = ImageWorkspace.get();
+			//only the first num lines are used.  The buffer may be longer (it is kept at the most lines seen),
+			//but its length is always even as lines has 2 channels.
+			float[] rhoTheta = ws.getFloats("BallpointLocator.lines", num * 2);
+			lines.get(0, 0, rhoTheta);
+			double[] gradients = ws.getDoubles("BallpointLocator.gradients", num);
+			double[] intercepts = ws.getDoubles("BallpointLocator.intercepts", num);
+			for(int i=0; i<num; i++) {
+				toGradientIntercept(rhoTheta[2*i], rhoTheta[2*i+1], gradients, intercepts, i);
+			}
+			
+			int zoneLeft = validZoneTopLeft.getX();
+			int zoneTop = validZoneTopLeft.getY();
+			int zoneRight = validZoneBottomRight.getX();
+			int zoneBottom = validZoneBottomRight.getY();
+			
+			//compare each line to every other line.  If they intersect within the defined valid zone, add 
+			//the intersection coordinates to the X and Y ballpoint variables.
+			for(int i=0; i<num; i++) {
+				double m1 = gradients[i];
+				double c1 = intercepts[i];
+				for(int j=i+1; j<num; j++) {
+					double xIn = (c1-intercepts[j]) / (gradients[j]-m1);
+					double yIn = m1 * xIn + c1;
+					int x = (int) xIn;
+					int y = (int) yIn;
+					if(x>zoneLeft && y>zoneTop && x<zoneRight && y<zoneBottom) {
+						bPointX += x;
+						bPointY += y;
+						count++;
+					}
+				}	
+			}
 		}
 		
 		Coord bPoint = null;
@@ -132,10 +172,18 @@ public class BallpointLocator {
 			bPoint = new Coord((int) Math.round(bPointX), (int) Math.round(bPointY));
 			bPoint = findNearestPenShadow(src, bPoint);	//(may return null if an edge cannot be found nearby)
 		}
-		//bPoint may be null if no intersection was found or no edge was found near the average intersection location.
-		if(bPoint!=null) {
-			ProcessImage.drawGreenRectangle(src, bPoint, 3, 3);
-			Highgui.imwrite("C:\\Users\\Simon\\Desktop\\frames4\\ballpoint-" + ballpointRecord.size() + ".jpg", src);
+		//bPoint may be null if no intersection was found or no edge was found near the average intersection 
+		//location.  Failing to find the ballpoint is passed to the debug sink as an anomaly.
+		attempts++;
+		if(debugSink!=null) {
+			Mat edgesBGR = ImageWorkspace.get().getMat("BallpointLocator.edgesBGR");
+			Imgproc.cvtColor(src, edgesBGR, Imgproc.COLOR_GRAY2BGR);
+			if(bPoint!=null) {
+				ProcessImage.drawGreenRectangle(edgesBGR, bPoint, 3, 3);
+				debugSink.offer("ballpoint-" + attempts, edgesBGR, false);
+			} else {
+				debugSink.offer("ballpoint-missed-" + attempts, edgesBGR, true);
+			}
 		}
 		
 		return bPoint;
@@ -143,119 +191,67 @@ public class BallpointLocator {
 	
 	
 	/**
-	 * Finds the intersection point between two lines defined in polar coordinates by the parameters rho 
-	 * and theta.
+	 * Converts a line defined in polar coordinates by the parameters rho and theta into the form y = mx + c.
+	 * (The intersection of two lines in this form is at x = (c1-c2) / (m2-m1), y = m1*x + c1).
 	 * 
-	 * @param rho1 - the length of the radius vector of line 1.
-	 * @param theta1 - the angle of the radius vector of line 1.
-	 * @param rho2 - the length of the radius vector of line 2.
-	 * @param theta2 - the angle of the radius vector of line 2.
-	 * @return the coordinates of the intersection point of the two lines.
+	 * @param rho - the length of the radius vector of the line.
+	 * @param theta - the angle of the radius vector of the line.
+	 * @param gradients - the array to store the gradient m of the line in.
+	 * @param intercepts - the array to store the intercept c of the line in.
+	 * @param index - the index in the arrays at which to store the line.
 	 */
-	private static Coord findIntersection(double rho1, double theta1, double rho2, double theta2) {
-		
-		double x0 = rho1*Math.cos(theta1);
-		double y0 = rho1*Math.sin(theta1);
-		double x1 = x0 - Math.sin(theta1);
-		double y1 = y0 + Math.cos(theta1);
-		
-		double m1 = (y1-y0) / (x1-x0);
-		double c1 = -m1 * x1 + y1;
+	private static void toGradientIntercept(double rho, double theta, double[] gradients, double[] intercepts,
+			int index) {
 		
-		double x2 = rho2*Math.cos(theta2);
-		double y2 = rho2*Math.sin(theta2);
-		double x3 = x2 - Math.sin(theta2);
-		double y3 = y2 + Math.cos(theta2);
-		
-		double m2 = (y3-y2) / (x3-x2);
-		double c2 = -m2 * x3 + y3;
-		
-		double xIn = (c1-c2) / (m2-m1);
-		double yIn = m1 * xIn + c1;
-		
-		return new Coord((int) xIn, (int) yIn);
+		double cos = Math.cos(theta);
+		double sin = Math.sin(theta);
+		double x0 = rho*cos;
+		double y0 = rho*sin;
+		double x1 = x0 - sin;
+		double y1 = y0 + cos;
 		
+		double m = (y1-y0) / (x1-x0);
+		gradients[index] = m;
+		intercepts[index] = -m * x1 + y1;
 	}
 	
 	/**
-	 * Method to find the nearest detected edge to the estimated ballpoint position.  This is such that the
-	 * estimated ballpoint can be ensured to be a point on the pen.
-	 * The method searches progressively widening radius around the estimated ballpoint location until it 
-	 * finds an edge.
+	 * setter for the sink that the edge image for each ballpoint search is sent to, annotated with the 
+	 * ballpoint if one was found.
 	 * 
-	 * @param src - the image with the detected edges (as a BGR image)
-	 * @param bPointEst - the estimated ballpoint location based on the Hough transform lines analysis.
-	 * @return a revised estimate of the ballpoint positioned on the nearest edge to the estimated location.
+	 * @param debugSink - the sink to use (null to turn debug output off).
 	 */
-	private Coord findNearestPenShadow(Mat src, Coord bPointEst) {
-		
-		Coord adjustedBPoint = null;
-		
-		//first check whether the estimated ballpoint is already on an edge.
-		double[] vals = src.get(bPointEst.getY(), bPointEst.getX());
-		if(vals[0]==255 && vals[1]==255 &&  vals[2]==255) {
-			adjustedBPoint = new Coord((bPointEst.getX()), (bPointEst.getY()));
-			return adjustedBPoint;
-		}
-		
-		//search radius increases to 10 - if an edge is not found, it is assumed that the estimate is poor
-		//and is therefore ignored.
-		for(int i=1; i<10; i++) {
-			adjustedBPoint = searchRoundPixel(src, bPointEst, i);
-			if(adjustedBPoint!=null) {
-				break;
-			}
-		}
-		
-		return adjustedBPoint;
+	@Override
+	public void setDebugSink(DebugFrameSink debugSink) {
+		this.debugSink = debugSink;
 	}
 	
+	/**
+	 * setter for the maximum number of Hough lines used to estimate the ballpoint.  Only the strongest lines
+	 * are used, which bounds the number of intersections calculated when the Hough threshold lets through
+	 * a large number of lines.
+	 * 
+	 * @param maxLines - the number of lines to keep (0 to use all lines).
+	 */
+	public void setMaxLines(int maxLines) {
+		this.maxLines = maxLines;
+	}
 	
 	/**
-	 * Method to search all the pixels a certain radius (step) from the estimated ballpoint location.  The
-	 * method returns as soon as a pixel is found that contains an edge (i.e. has pixel intensity 255 for
-	 * all BGR).
+	 * Method to find the nearest detected edge to the estimated ballpoint position.  This is such that the
+	 * estimated ballpoint can be ensured to be a point on the pen.
+	 * The nearest edge is looked up in a map of the nearest edge to every pixel, calculated from the edge 
+	 * image.  Edges SHADOW_SEARCH_RADIUS or more pixels away (in either direction) are ignored, as the 
+	 * estimate is then assumed to be poor.
 	 * 
-	 * @param src - the image with the detected edges (as a BGR image)
+	 * @param src - the image with the detected edges.
 	 * @param bPointEst - the estimated ballpoint location based on the Hough transform lines analysis.
-	 * @param step - the distance/radius from the estimated location to search.
-	 * @return the first encountered pixel with intensity 255 in all BGR space, or null if no such pixel is
-	 * found.
+	 * @return a revised estimate of the ballpoint positioned on the nearest edge to the estimated location,
+	 * or null if there is no edge nearby.
 	 */
-	private Coord searchRoundPixel(Mat src, Coord bPointEst, int step) {
-		
-		int minX = bPointEst.getX()-step>0 ? -step : 0;
-		int maxX = bPointEst.getX()+step<src.cols() ? step : src.cols()-1-bPointEst.getX();
-		int minY = bPointEst.getY()-step>0 ? -step : 0;
-		int maxY = bPointEst.getY()+step<src.rows() ? step : src.rows()-1-bPointEst.getY();
-		
-		Coord adjustedBPoint = null;
-		
-		//search 'columns'
-		for(int i=minX; i<=maxX; i+=(maxX-minX)) {
-			for(int j=minY; j<=maxY; j++) {
-				
-				double[] vals = src.get(bPointEst.getY()+j, bPointEst.getX()+i);
-				if(vals[0]==255 && vals[1]==255 &&  vals[2]==255) {
-					adjustedBPoint = new Coord((bPointEst.getX() + i), (bPointEst.getY() + j));
-					return adjustedBPoint;
-				}
-			}
-		}
-		
-		//search 'rows'
-		for(int j=minY; j<=maxY; j+=(maxY-minY)) {
-			for(int i=minX; i<=maxX; i++) {
-				
-				double[] vals = src.get(bPointEst.getY()+j, bPointEst.getX()+i);
-				if(vals[0]==255 && vals[1]==255 &&  vals[2]==255) {
-					adjustedBPoint = new Coord((bPointEst.getX() + i), (bPointEst.getY() + j));
-					return adjustedBPoint;
-				}
-			}
-		}
-		
-		return adjustedBPoint;
+	private Coord findNearestPenShadow(Mat src, Coord bPointEst) {
+		edgeMap.compute(src);
+		return edgeMap.findNearest(bPointEst.getX(), bPointEst.getY(), SHADOW_SEARCH_RADIUS);
 	}
 	
 //	/**
@@ -0,0 +1,177 @@
+package ballpointLocating;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.imgproc.Moments;
+
+import strokeData.Coord;
+import videoProcessing.DebugFrameSink;
+import videoProcessing.ImageWorkspace;
+import videoProcessing.ProcessImage;
+
+/**
+ * BallpointDetector which estimates the ballpoint as the end of the pen head.  The pen head is filtered 
+ * out of the template image as for the BallpointLocator, and the largest contour in the resulting mask is 
+ * taken as the outline of the pen.  The principal axis of the contour (the direction in which it is 
+ * longest) is found from its image moments, and the contour points furthest along the axis in each 
+ * direction are the two ends of the pen.  The end within the valid zone is the ballpoint.
+ * 
+ * This avoids the edge detection, Hough transform and line intersections of the BallpointLocator, so is 
+ * much cheaper, but relies on the pen head showing up as a single elongated shape in the mask.
+ * 
+ * @author Simon Dicken (Student ID: 1378818)
+ * @version 2014-08-03
+ */
+public class ContourExtremumDetector implements BallpointDetector {
+	
+	private Coord validZoneTopLeft; //the coordinates of the top left point of the zone in which a ballpoint is
+									//considered valid.
+	private Coord validZoneBottomRight; //the coordinates of the bottom right point of the zone in which a 
+										//ballpoint is considered valid.
+	private DebugFrameSink debugSink;	//where to send the annotated pen masks (null for no debug output).
+	private int attempts;	//the number of ballpoints that have been looked for (used to name debug images).
+	
+	private final Scalar filterLow = new Scalar(0,0,0);		//the lower bound of the filter (in HSV colour space)
+	private final Scalar filterHigh = new Scalar(255,75,75); //the upper bound of the filter (in HSV colour space)
+	private final int dilateKSize = 3;	//the dimensions of the kernel to use in the image dilation step.
+	private final int minContourArea = 20;	//contours smaller than this (in pixels) are taken to be noise.
+	
+	//the contours found in the mask (reused from frame to frame).
+	private final List<MatOfPoint> contours = new ArrayList<MatOfPoint>();
+	
+	/**
+	 * Constructor for the ContourExtremumDetector.
+	 * 
+	 * @param validZoneTopLeft - the coordinates of the top left point of the zone in which a ballpoint is
+	 * considered valid.
+	 * @param validZoneBottomRight - the coordinates of the bottom right point of the zone in which a 
+	 * ballpoint is considered valid.
+	 */
+	public ContourExtremumDetector(Coord validZoneTopLeft, Coord validZoneBottomRight) {
+		this.validZoneTopLeft = validZoneTopLeft;
+		this.validZoneBottomRight = validZoneBottomRight;
+	}
+	
+	@Override
+	public Coord findBallpoint(Mat src) {
+		
+		ImageWorkspace ws = ImageWorkspace.get();
+		Mat normalised = ws.getMat("ContourExtremumDetector.normalised");
+		Mat filtered = ws.getMat("ContourExtremumDetector.filtered");
+		Mat mask = ws.getMat("ContourExtremumDetector.mask");
+		Mat hierarchy = ws.getMat("ContourExtremumDetector.hierarchy");
+		
+		//filter out the pen head as for the BallpointLocator.
+		ProcessImage.normalise(src, normalised);
+		ProcessImage.filterColour(normalised, filterLow, filterHigh, filtered);
+		ProcessImage.dilate(filtered, dilateKSize, mask);
+		
+		//find the largest outer contour (findContours overwrites the mask, but it is not needed afterwards).
+		for(MatOfPoint c : contours) {
+			c.release();
+		}
+		contours.clear();
+		Imgproc.findContours(mask, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_NONE);
+		MatOfPoint pen = null;
+		double penArea = minContourArea;
+		for(MatOfPoint c : contours) {
+			double area = Imgproc.contourArea(c);
+			if(area>=penArea) {
+				pen = c;
+				penArea = area;
+			}
+		}
+		
+		Coord bPoint = null;
+		if(pen!=null) {
+			bPoint = findAxisExtremum(pen);
+		}
+		
+		attempts++;
+		if(debugSink!=null) {
+			Mat maskBGR = ws.getMat("ContourExtremumDetector.maskBGR");
+			Imgproc.cvtColor(filtered, maskBGR, Imgproc.COLOR_GRAY2BGR);
+			if(bPoint!=null) {
+				ProcessImage.drawGreenRectangle(maskBGR, bPoint, 3, 3);
+				debugSink.offer("ballpoint-" + attempts, maskBGR, false);
+			} else {
+				debugSink.offer("ballpoint-missed-" + attempts, maskBGR, true);
+			}
+		}
+		
+		return bPoint;
+	}
+	
+	/**
+	 * Method to find the ends of a contour along its principal axis and choose the one that is within the 
+	 * valid zone.  If both or neither are, the one nearest the centre of the zone is chosen.
+	 * 
+	 * @param contour - the outline of the pen.
+	 * @return the end of the pen that is taken as the ballpoint.
+	 */
+	private Coord findAxisExtremum(MatOfPoint contour) {
+		
+		//the principal axis passes through the centroid at the angle given by the second order central 
+		//moments.
+		Moments m = Imgproc.moments(contour);
+		double centreX = m.m10 / m.m00;
+		double centreY = m.m01 / m.m00;
+		double angle = 0.5 * Math.atan2(2*m.mu11, m.mu20 - m.mu02);
+		double axisX = Math.cos(angle);
+		double axisY = Math.sin(angle);
+		
+		Point[] points = contour.toArray();
+		Point minPoint = points[0];
+		Point maxPoint = points[0];
+		double minProj = Double.MAX_VALUE;
+		double maxProj = -Double.MAX_VALUE;
+		for(Point p : points) {
+			double proj = (p.x - centreX)*axisX + (p.y - centreY)*axisY;
+			if(proj<minProj) {
+				minProj = proj;
+				minPoint = p;
+			}
+			if(proj>maxProj) {
+				maxProj = proj;
+				maxPoint = p;
+			}
+		}
+		
+		boolean minValid = inValidZone(minPoint);
+		boolean maxValid = inValidZone(maxPoint);
+		Point end;
+		if(minValid != maxValid) {
+			end = minValid ? minPoint : maxPoint;
+		} else {
+			double zoneX = (validZoneTopLeft.getX() + validZoneBottomRight.getX()) / 2.0;
+			double zoneY = (validZoneTopLeft.getY() + validZoneBottomRight.getY()) / 2.0;
+			double minDist = Math.hypot(minPoint.x - zoneX, minPoint.y - zoneY);
+			double maxDist = Math.hypot(maxPoint.x - zoneX, maxPoint.y - zoneY);
+			end = (minDist<=maxDist) ? minPoint : maxPoint;
+		}
+		return new Coord((int) end.x, (int) end.y);
+	}
+	
+	/**
+	 * Method to check whether a point is within the zone in which a ballpoint is considered valid.
+	 * 
+	 * @param p - the point to check.
+	 * @return true if the point is within the valid zone.
+	 */
+	private boolean inValidZone(Point p) {
+		return p.x>validZoneTopLeft.getX() && p.y>validZoneTopLeft.getY() 
+				&& p.x<validZoneBottomRight.getX() && p.y<validZoneBottomRight.getY();
+	}
+	
+	@Override
+	public void setDebugSink(DebugFrameSink debugSink) {
+		this.debugSink = debugSink;
+	}
+
+}
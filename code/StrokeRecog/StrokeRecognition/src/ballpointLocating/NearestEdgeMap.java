@@ -0,0 +1,152 @@
+package ballpointLocating;
+
+import org.opencv.core.Mat;
+
+import strokeData.Coord;
+import videoProcessing.ImageWorkspace;
+
+/**
+ * Class to answer "where is the nearest edge pixel to this point?" for an edge image (e.g. the output of
+ * the Canny edge detector).  A distance transform of the edge image is calculated once by compute(), which
+ * records for every pixel both the distance to the nearest edge pixel and which edge pixel that is, so
+ * each query afterwards is a single array lookup.
+ *
+ * Distances are measured as the chessboard (Chebyshev) distance, i.e. max(|dx|, |dy|), which is the
+ * distance at which a search of square rings of increasing size around the point would first find the
+ * edge pixel.  If more than one edge pixel is at the nearest distance, any one of them may be returned.
+ *
+ * Objects of this class keep the map between calls, so are not thread safe.
+ *
+ * @author Simon Dicken (Student ID: 1378818)
+ * @version 2014-08-02
+ */
+public class NearestEdgeMap {
+
+	private static final int NO_EDGE = Integer.MAX_VALUE / 2;	//the distance recorded when there is no edge.
+
+	private int rows;	//the number of rows in the edge image.
+	private int cols;	//the number of columns in the edge image.
+	private int[] distance = new int[0];	//the distance from each pixel to the nearest edge pixel.
+	private int[] nearest = new int[0];	//the index (row*cols + col) of the nearest edge pixel, or -1 if none.
+
+	/**
+	 * Method to calculate the nearest edge pixel to every pixel of an edge image.  Uses the two pass
+	 * distance transform: the first pass (top left to bottom right) takes the nearest edge from the
+	 * neighbours above and to the left, the second pass (bottom right to top left) from the neighbours
+	 * below and to the right.  With all 8 neighbours a step of 1 apart this gives the exact chessboard
+	 * distance.
+	 *
+	 * @param edges - the edge image (8-bit, single channel; any non-zero pixel is an edge).
+	 */
+	public void compute(Mat edges) {
+
+		ImageWorkspace ws = ImageWorkspace.get();
+		if(!edges.isContinuous()) {
+			Mat continuous = ws.getMat("NearestEdgeMap.continuous");
+			edges.copyTo(continuous);
+			edges = continuous;
+		}
+
+		rows = edges.rows();
+		cols = edges.cols();
+		int size = rows * cols;
+		if(distance.length < size) {
+			distance = new int[size];
+			nearest = new int[size];
+		}
+		byte[] pixels = ws.getBytes("NearestEdgeMap.pixels", size);
+		edges.get(0, 0, pixels);
+
+		for(int p=0; p<size; p++) {
+			if(pixels[p]!=0) {
+				distance[p] = 0;
+				nearest[p] = p;
+			} else {
+				distance[p] = NO_EDGE;
+				nearest[p] = -1;
+			}
+		}
+
+		//forward pass: left, top left, top and top right neighbours.
+		for(int y=0; y<rows; y++) {
+			for(int x=0; x<cols; x++) {
+				int p = y*cols + x;
+				if(x>0) {
+					relax(p, p-1);
+				}
+				if(y>0) {
+					relax(p, p-cols);
+					if(x>0) {
+						relax(p, p-cols-1);
+					}
+					if(x<cols-1) {
+						relax(p, p-cols+1);
+					}
+				}
+			}
+		}
+
+		//backward pass: right, bottom right, bottom and bottom left neighbours.
+		for(int y=rows-1; y>=0; y--) {
+			for(int x=cols-1; x>=0; x--) {
+				int p = y*cols + x;
+				if(x<cols-1) {
+					relax(p, p+1);
+				}
+				if(y<rows-1) {
+					relax(p, p+cols);
+					if(x<cols-1) {
+						relax(p, p+cols+1);
+					}
+					if(x>0) {
+						relax(p, p+cols-1);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Method to take the nearest edge of a neighbouring pixel if it is nearer than the pixel's own.
+	 *
+	 * @param p - the index of the pixel.
+	 * @param neighbour - the index of the neighbouring pixel.
+	 */
+	private void relax(int p, int neighbour) {
+		if(distance[neighbour] + 1 < distance[p]) {
+			distance[p] = distance[neighbour] + 1;
+			nearest[p] = nearest[neighbour];
+		}
+	}
+
+	/**
+	 * Method to find the nearest edge pixel to a point, using the map from the last call to compute().
+	 * A point outside the image is moved onto the nearest pixel of the image before the lookup.
+	 *
+	 * @param x - the x coordinate of the point.
+	 * @param y - the y coordinate of the point.
+	 * @param maxDistance - edge pixels this far away or further are ignored.
+	 * @return the coordinates of the nearest edge pixel, or null if there is no edge pixel within
+	 * maxDistance of the point.
+	 */
+	public Coord findNearest(int x, int y, int maxDistance) {
+
+		if(rows==0 || cols==0) {
+			return null;
+		}
+		int cx = Math.max(0, Math.min(cols-1, x));
+		int cy = Math.max(0, Math.min(rows-1, y));
+		int p = nearest[cy*cols + cx];
+		if(p<0) {
+			return null;
+		}
+
+		int edgeX = p % cols;
+		int edgeY = p / cols;
+		if(Math.max(Math.abs(edgeX-x), Math.abs(edgeY-y)) >= maxDistance) {
+			return null;
+		}
+		return new Coord(edgeX, edgeY);
+	}
+
+}
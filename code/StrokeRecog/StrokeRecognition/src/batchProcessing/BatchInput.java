@@ -0,0 +1,138 @@
+package batchProcessing;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import videoProcessing.ProcessFile;
+import videoProcessing.ProcessJpgs;
+import videoProcessing.ProcessVideo;
+
+/**
+ * Class representing one input to be processed by the BatchProcessor: either a video file or a sequence of
+ * jpg frames (numbered 1, 2, 3...etc in the same way as for ProcessJpgs).
+ *
+ * @author Simon Dicken (Student ID: 1378818)
+ * @version 2014-08-09
+ */
+class BatchInput {
+
+	//matches the name of a numbered jpg frame, e.g. "frame_12.jpg" (the prefix is "frame_").
+	private static final Pattern JPG_FRAME = Pattern.compile("(.*?)(\\d+)\\.jpg", Pattern.CASE_INSENSITIVE);
+
+	private final String name;	//the name of the input (used to name the output file).
+	private final String path;	//the video file, or the file path of the jpgs up to the frame number.
+	private final int lastFrame;	//the number of the final jpg frame (0 for a video file).
+
+	/**
+	 * Constructor for BatchInput.
+	 *
+	 * @param name - the name of the input.
+	 * @param path - the video file, or the file path of the jpgs up to the frame number.
+	 * @param lastFrame - the number of the final jpg frame (0 for a video file).
+	 */
+	private BatchInput(String name, String path, int lastFrame) {
+		this.name = name;
+		this.path = path;
+		this.lastFrame = lastFrame;
+	}
+
+	/**
+	 * Method to create the input for a video file.
+	 *
+	 * @param file - the video file.
+	 * @return the input.
+	 */
+	static BatchInput videoFile(File file) {
+		String fileName = file.getName();
+		int dot = fileName.lastIndexOf('.');
+		return new BatchInput((dot>0) ? fileName.substring(0, dot) : fileName, file.getPath(), 0);
+	}
+
+	/**
+	 * Method to create the input for a sequence of jpg frames.
+	 *
+	 * @param prefix - the file path of the frames up to the frame number (e.g. "frames/frame_").
+	 * @param lastFrame - the number of the final frame.
+	 * @return the input.
+	 */
+	static BatchInput jpgSequence(String prefix, int lastFrame) {
+		if(lastFrame<1) {
+			throw new IllegalArgumentException("A jpg sequence needs at least one frame.");
+		}
+		String fileName = new File(prefix).getName().replaceAll("[_\\-. ]+$", "");
+		if(fileName.isEmpty()) {
+			fileName = new File(prefix).getParentFile().getName();
+		}
+		return new BatchInput(fileName, prefix, lastFrame);
+	}
+
+	/**
+	 * Method to find the jpg sequences in a directory.  The frames of each sequence must share a prefix and
+	 * be numbered from 1 without gaps - the sequence ends at the first missing number.
+	 *
+	 * @param dir - the directory to look in.
+	 * @return the jpg sequences found, in order of their prefix.
+	 */
+	static List<BatchInput> findJpgSequences(File dir) {
+		Map<String, TreeSet<Integer>> frames = new TreeMap<String, TreeSet<Integer>>();
+		File[] files = dir.listFiles();
+		if(files!=null) {
+			for(File f : files) {
+				Matcher m = JPG_FRAME.matcher(f.getName());
+				if(f.isFile() && m.matches()) {
+					TreeSet<Integer> nums = frames.get(m.group(1));
+					if(nums==null) {
+						nums = new TreeSet<Integer>();
+						frames.put(m.group(1), nums);
+					}
+					nums.add(Integer.valueOf(m.group(2)));
+				}
+			}
+		}
+
+		List<BatchInput> inputs = new ArrayList<BatchInput>();
+		for(Map.Entry<String, TreeSet<Integer>> e : frames.entrySet()) {
+			int last = 0;
+			while(e.getValue().contains(last+1)) {
+				last++;
+			}
+			if(last>0) {
+				inputs.add(jpgSequence(new File(dir, e.getKey()).getPath(), last));
+			}
+		}
+		return inputs;
+	}
+
+	/**
+	 * Method to create the ProcessVideo object which processes this input.
+	 *
+	 * @param template - the full file path including extension of the image to use as the template.
+	 * @return the ProcessVideo object.
+	 */
+	ProcessVideo open(String template) {
+		if(lastFrame>0) {
+			return new ProcessJpgs(path, lastFrame, template);
+		}
+		return new ProcessFile(path, template);
+	}
+
+	String getName() {
+		return name;
+	}
+
+	String getPath() {
+		return path;
+	}
+
+	@Override
+	public String toString() {
+		return (lastFrame>0) ? path + "[1-" + lastFrame + "].jpg" : path;
+	}
+
+}
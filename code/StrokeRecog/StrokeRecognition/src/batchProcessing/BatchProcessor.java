@@ -0,0 +1,345 @@
+package batchProcessing;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.opencv.core.Core;
+
+import strokeData.Stroke;
+import videoProcessing.ProcessVideo;
+
+/**
+ * Class to process a batch of recorded inputs without the GUI.  The inputs are processed in parallel, one
+ * per thread, up to a set number at a time.  The stroke record of each input is written to a .csv file in
+ * the output directory (one line per stroke: the x and y location of the ballpoint and whether the pen was
+ * down), and a summary of the frames processed and the time taken is printed out at the end.
+ *
+ * Usage:
+ * 	BatchProcessor [-j threads] [-o outputDir] template input...
+ *
+ * Each input can be:
+ * - 	a video file, e.g. "videos/vid2.mp4".
+ * - 	a directory - every .mp4 file and every sequence of numbered jpg frames in it is processed.
+ * - 	a wildcard pattern in the file name, e.g. "videos/*.mp4".
+ * - 	a sequence of jpg frames, given as the file path up to the frame number followed by a colon and the
+ * 		number of the last frame, e.g. "frames/frame_:310".
+ *
+ * By default one input is processed per core and the output is written to the "strokes" directory.
+ *
+ * @author Simon Dicken (Student ID: 1378818)
+ * @version 2014-08-09
+ */
+public class BatchProcessor {
+
+	private static final String DEFAULT_OUTPUT_DIR = "strokes";
+
+	//matches a jpg sequence argument, e.g. "frames/frame_:310".
+	private static final Pattern JPG_SEQUENCE = Pattern.compile("(.+):(\\d+)");
+
+	private final String template;	//the template image used for every input.
+	private final File outputDir;	//the directory the stroke records are written to.
+	private final int threads;	//the most inputs processed at once.
+
+	/**
+	 * Constructor for BatchProcessor.
+	 *
+	 * @param template - the full file path including extension of the image to use as the template.
+	 * @param outputDir - the directory to write the stroke records to (created if necessary).
+	 * @param threads - the most inputs to process at once.
+	 */
+	public BatchProcessor(String template, File outputDir, int threads) {
+		if(threads<1) {
+			throw new IllegalArgumentException("At least one thread is needed.");
+		}
+		this.template = template;
+		this.outputDir = outputDir;
+		this.threads = threads;
+	}
+
+	public static void main(String[] args) {
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		File outputDir = new File(DEFAULT_OUTPUT_DIR);
+		int i = 0;
+		try {
+			for(; i<args.length && args[i].startsWith("-"); i++) {
+				if(args[i].equals("-j") && i+1<args.length) {
+					threads = Integer.parseInt(args[++i]);
+				} else if(args[i].equals("-o") && i+1<args.length) {
+					outputDir = new File(args[++i]);
+				} else {
+					usage();
+					return;
+				}
+			}
+		} catch (NumberFormatException e) {
+			usage();
+			return;
+		}
+		if(args.length-i<2) {
+			usage();
+			return;
+		}
+
+		String template = args[i];
+		List<BatchInput> inputs = new ArrayList<BatchInput>();
+		for(String arg : Arrays.asList(args).subList(i+1, args.length)) {
+			List<BatchInput> found = findInputs(arg);
+			if(found.isEmpty()) {
+				System.out.println("No inputs found for " + arg);
+			}
+			inputs.addAll(found);
+		}
+		if(inputs.isEmpty()) {
+			System.exit(1);
+		}
+
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+		boolean ok = new BatchProcessor(template, outputDir, threads).run(inputs);
+		System.exit(ok ? 0 : 1);
+	}
+
+	private static void usage() {
+		System.out.println("Usage: BatchProcessor [-j threads] [-o outputDir] template input...");
+		System.out.println("  input - a video file, a directory, a wildcard pattern such as videos/*.mp4,");
+		System.out.println("          or a jpg sequence given as prefix:lastFrame such as frames/frame_:310.");
+	}
+
+	/**
+	 * Method to work out the inputs given by one command line argument.
+	 *
+	 * @param arg - the argument.
+	 * @return the inputs (empty if there are none).
+	 */
+	static List<BatchInput> findInputs(String arg) {
+
+		List<BatchInput> inputs = new ArrayList<BatchInput>();
+		File file = new File(arg);
+		Matcher jpgs = JPG_SEQUENCE.matcher(arg);
+
+		if(file.isDirectory()) {
+			inputs.addAll(listFiles(file.toPath(), "*.mp4"));
+			inputs.addAll(BatchInput.findJpgSequences(file));
+		} else if(file.isFile()) {
+			inputs.add(BatchInput.videoFile(file));
+		} else if(jpgs.matches()) {
+			inputs.add(BatchInput.jpgSequence(jpgs.group(1), Integer.parseInt(jpgs.group(2))));
+		} else if(arg.indexOf('*')>=0 || arg.indexOf('?')>=0) {
+			//only the file name may contain wildcards.
+			Path dir = (file.getParentFile()!=null) ? file.getParentFile().toPath() : Paths.get(".");
+			inputs.addAll(listFiles(dir, file.getName()));
+		}
+		return inputs;
+	}
+
+	/**
+	 * Method to list the video files in a directory which match a wildcard pattern.
+	 *
+	 * @param dir - the directory.
+	 * @param glob - the pattern the file names must match.
+	 * @return the matching files, in order of name.
+	 */
+	private static List<BatchInput> listFiles(Path dir, String glob) {
+		List<Path> paths = new ArrayList<Path>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, glob)) {
+			for(Path p : stream) {
+				if(Files.isRegularFile(p)) {
+					paths.add(p);
+				}
+			}
+		} catch (IOException e) {
+			System.out.println("Could not list " + dir + ": " + e.getMessage());
+		}
+		Collections.sort(paths);
+
+		List<BatchInput> inputs = new ArrayList<BatchInput>();
+		for(Path p : paths) {
+			inputs.add(BatchInput.videoFile(p.toFile()));
+		}
+		return inputs;
+	}
+
+	/**
+	 * Method to process every input and print out the summary.
+	 *
+	 * @param inputs - the inputs to process.
+	 * @return true if every input was processed, false if any failed.
+	 */
+	boolean run(List<BatchInput> inputs) {
+
+		if(!outputDir.isDirectory() && !outputDir.mkdirs()) {
+			System.out.println("Could not create the output directory " + outputDir);
+			return false;
+		}
+
+		//give each input its own output file, even if two inputs have the same name.
+		final List<File> outputs = new ArrayList<File>();
+		Set<String> used = new HashSet<String>();
+		for(BatchInput in : inputs) {
+			String name = in.getName();
+			for(int n=2; !used.add(name); n++) {
+				name = in.getName() + "-" + n;
+			}
+			outputs.add(new File(outputDir, name + ".csv"));
+		}
+
+		System.out.println("Processing " + inputs.size() + " inputs on " + threads + " threads.");
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, inputs.size()));
+		final AtomicInteger completed = new AtomicInteger();
+		final int total = inputs.size();
+		List<Future<BatchResult>> futures = new ArrayList<Future<BatchResult>>();
+		long start = System.nanoTime();
+		for(int i=0; i<inputs.size(); i++) {
+			final BatchInput in = inputs.get(i);
+			final File out = outputs.get(i);
+			futures.add(pool.submit(new Callable<BatchResult>() {
+				@Override
+				public BatchResult call() {
+					BatchResult r = process(in, out);
+					System.out.println("[" + completed.incrementAndGet() + "/" + total + "] " + r);
+					return r;
+				}
+			}));
+		}
+		pool.shutdown();
+
+		List<BatchResult> results = new ArrayList<BatchResult>();
+		for(Future<BatchResult> f : futures) {
+			try {
+				results.add(f.get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				pool.shutdownNow();
+				return false;
+			} catch (ExecutionException e) {
+				//process() catches everything itself.
+				throw new RuntimeException(e.getCause());
+			}
+		}
+		long wallNanos = System.nanoTime() - start;
+
+		return printSummary(results, wallNanos);
+	}
+
+	/**
+	 * Method to process one input and write out its stroke record.
+	 *
+	 * @param in - the input.
+	 * @param out - the file to write the stroke record to.
+	 * @return the result of processing the input.
+	 */
+	private BatchResult process(BatchInput in, File out) {
+		long start = System.nanoTime();
+		ProcessVideo pv = null;
+		try {
+			pv = in.open(template);
+			pv.setPrintSummary(false);
+			pv.startProcessing();
+			writeStrokes(pv.getSC().getStrokeRecord(), out);
+			//the first frame is processed as well as those counted by getFramesTracked().
+			int frames = 1 + pv.getFramesTracked() + pv.getFramesSkipped();
+			return new BatchResult(in, frames, System.nanoTime() - start, null);
+		} catch (Exception e) {
+			return new BatchResult(in, 0, System.nanoTime() - start, e);
+		} finally {
+			//release the decoder now rather than leaving one open per input until they are collected.
+			if(pv!=null) {
+				pv.closeInput();
+			}
+		}
+	}
+
+	/**
+	 * Method to write a stroke record to a .csv file.
+	 *
+	 * @param strokes - the strokes.
+	 * @param out - the file to write to.
+	 * @throws IOException - if the file could not be written.
+	 */
+	static void writeStrokes(List<Stroke> strokes, File out) throws IOException {
+		try (BufferedWriter w = new BufferedWriter(new FileWriter(out))) {
+			w.write("x,y,penDown");
+			w.newLine();
+			for(Stroke s : strokes) {
+				w.write(s.getLocation().getX() + "," + s.getLocation().getY() + "," + s.isPenDown());
+				w.newLine();
+			}
+		}
+	}
+
+	/**
+	 * Method to print out the totals for the batch.
+	 *
+	 * @param results - the result of each input.
+	 * @param wallNanos - the time taken to process the whole batch.
+	 * @return true if every input was processed, false if any failed.
+	 */
+	private boolean printSummary(List<BatchResult> results, long wallNanos) {
+		long frames = 0;
+		long busyNanos = 0;
+		int failed = 0;
+		for(BatchResult r : results) {
+			frames += r.frames;
+			busyNanos += r.nanos;
+			if(r.failure!=null) {
+				failed++;
+			}
+		}
+		System.out.println();
+		System.out.println("Inputs processed: " + (results.size()-failed) + ", failed: " + failed);
+		System.out.println(String.format("Frames processed: %d in %.1f s wall-clock (%.1f fps overall)", frames,
+				wallNanos/1e9, frames/(wallNanos/1e9)));
+		System.out.println(String.format("Total processing time: %.1f s (%.2fx speed-up from running in parallel)",
+				busyNanos/1e9, busyNanos/(double) wallNanos));
+		System.out.println("Stroke records written to " + outputDir.getPath());
+		return failed==0;
+	}
+
+	/**
+	 * Class to hold the result of processing one input.
+	 */
+	private static class BatchResult {
+
+		private final BatchInput input;	//the input processed.
+		private final int frames;	//the number of frames processed.
+		private final long nanos;	//the time taken to process the input.
+		private final Exception failure;	//the error that stopped the input being processed (null if none).
+
+		BatchResult(BatchInput input, int frames, long nanos, Exception failure) {
+			this.input = input;
+			this.frames = frames;
+			this.nanos = nanos;
+			this.failure = failure;
+		}
+
+		@Override
+		public String toString() {
+			if(failure!=null) {
+				return input.getName() + ": failed - " + failure.getLocalizedMessage();
+			}
+			return String.format("%s: %d frames in %.1f s (%.1f fps)", input.getName(), frames, nanos/1e9,
+					frames/(nanos/1e9));
+		}
+	}
+
+}
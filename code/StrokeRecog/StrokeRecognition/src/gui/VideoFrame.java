@@ -3,21 +3,17 @@ package gui;
 import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.Observable;
-import java.util.Observer;
+import java.awt.image.DataBufferByte;
+import java.lang.reflect.InvocationTargetException;
 
-import javax.imageio.ImageIO;
 import javax.swing.ImageIcon;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
+import javax.swing.SwingUtilities;
 
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfByte;
 import org.opencv.core.Size;
-import org.opencv.highgui.Highgui;
 import org.opencv.imgproc.Imgproc;
 
 import videoProcessing.*;
@@ -25,8 +21,8 @@ import videoProcessing.*;
 /**
  * Class to provide the GUI for the Stroke Recognition system.
  * 
- * The GUI follows the Model-View pattern (using the Observer-Observable setup) with the Model provided by
- * an object of type ProcessVideo. (ProcessVideo is an abstract class with various sub-class concrete
+ * The GUI follows the Model-View pattern (the view is a FrameListener of the model) with the Model provided
+ * by an object of type ProcessVideo. (ProcessVideo is an abstract class with various sub-class concrete
  * implementations for different video input methods e.g. webcam, video file, or collection of jpeg frames).
  * 
  * The GUI is basic and primarily consists of 4 JLabels, 3 of which are constantly updated by the input 
@@ -41,7 +37,7 @@ import videoProcessing.*;
  * @author Simon Dicken (Student ID: 1378818)
  * @version 2014-07-16
  */
-public class VideoFrame extends JFrame implements Observer {
+public class VideoFrame extends JFrame implements FrameListener {
 
 	private static final long serialVersionUID = 1L;
 	private JLabel inputView;
@@ -52,6 +48,15 @@ public class VideoFrame extends JFrame implements Observer {
 	private Dimension subDims;		//dimensions of the two smaller JLabels (roiView and templateView)
 	private ProcessVideo input;		//the input video processing object (this is the Model in the Model-View pattern)
 	
+	//the resized images for each view (only used on the listener thread) and the images shown by each view 
+	//(only used on the Swing event thread).  Both are reused for every frame.
+	private final Mat frameResize = new Mat();
+	private final Mat roiResize = new Mat();
+	private final Mat filteredFrameResize = new Mat();
+	private BufferedImage frameImage;
+	private BufferedImage roiImage;
+	private BufferedImage filteredFrameImage;
+	
 
 	/**
 	 * Constructor for the VideoFrame.
@@ -166,48 +171,60 @@ public class VideoFrame extends JFrame implements Observer {
 	 * Setup the Model-View connection and start processing the video.
 	 */
 	private void process() {
-		input.addObserver(this);
+		input.addFrameListener(this);
 		input.startProcessing();
 	}
 	
 	/**
-	 * Implementation of the Observer interface method.
-	 * Updates the 3 variable views with the next images from the ProcessVideo object.
+	 * Implementation of the FrameListener interface method.
+	 * Updates the 3 variable views with the images from the snapshot.  The images are resized on the 
+	 * listener thread, then copied straight into the views' images on the Swing event thread (waiting for 
+	 * this to finish means the resized images can be reused for the next frame).
 	 */
 	@Override
-	public void update(Observable obs, Object obj) {
+	public void frameProcessed(FrameSnapshot snapshot) {
 		
-		if(obs instanceof ProcessVideo) {
-			ProcessVideo pv = (ProcessVideo) obs;
-			
-			//Get the updated images from the ProcessVideo object.
-			Mat frame = pv.getImg();
-			Mat roi = pv.getROI();
-			Mat filteredFrame = pv.getFilteredImg();
-			
-			Mat frameResize = new Mat();
-			Mat roiResize = new Mat();
-	    	Mat filteredFrameResize = new Mat();
-	    	
-	    	//Resize the images to fit the GUI dimensions.
-	    	Imgproc.resize(frame, frameResize, new Size(mainDims.getWidth(), mainDims.getHeight()));
-	    	Imgproc.resize(roi, roiResize, new Size(subDims.getWidth(), subDims.getHeight()));
-	    	Imgproc.resize(filteredFrame, filteredFrameResize, new Size(mainDims.getWidth(), mainDims.getHeight()));
-	    	
-	    	//Convert each image to a Buffered image.
-	    	BufferedImage biFrame = matToBuffImg(frameResize);
-	    	BufferedImage biROI = matToBuffImg(roiResize);
-	    	BufferedImage biFilteredFrame = matToBuffImg(filteredFrameResize);
-	    	
-	    	//Update the views with the new images.
-			inputView.setIcon(new ImageIcon(biFrame));
-			roiView.setIcon(new ImageIcon(biROI));
-			processedView.setIcon(new ImageIcon(biFilteredFrame));
-			
+		//Resize the images from the snapshot to fit the GUI dimensions.
+    	Imgproc.resize(snapshot.getImg(), frameResize, new Size(mainDims.getWidth(), mainDims.getHeight()));
+    	Imgproc.resize(snapshot.getROI(), roiResize, new Size(subDims.getWidth(), subDims.getHeight()));
+    	Imgproc.resize(snapshot.getFilteredImg(), filteredFrameResize, new Size(mainDims.getWidth(), 
+    			mainDims.getHeight()));
+    	
+    	//Update the views with the new images.
+    	try {
+	    	SwingUtilities.invokeAndWait(new Runnable() {
+	    		@Override
+	    		public void run() {
+	    			frameImage = showImage(inputView, frameResize, frameImage);
+	    			roiImage = showImage(roiView, roiResize, roiImage);
+	    			filteredFrameImage = showImage(processedView, filteredFrameResize, filteredFrameImage);
+	    		}
+	    	});
+    	} catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    	} catch (InvocationTargetException e) {
+    		throw new RuntimeException("Could not update the views.", e.getCause());
+    	}
+		
+	}
+	
+	/**
+	 * Method to show an image in a view.  The image is copied into the view's existing BufferedImage if it 
+	 * is the right size and type, in which case the view is just repainted.
+	 * 
+	 * @param view - the view to show the image in.
+	 * @param img - the image to show.
+	 * @param current - the BufferedImage currently shown by the view (null if none).
+	 * @return the BufferedImage now shown by the view.
+	 */
+	private static BufferedImage showImage(JLabel view, Mat img, BufferedImage current) {
+		BufferedImage bi = matToBuffImg(img, current);
+		if(bi!=current || view.getIcon()==null) {
+			view.setIcon(new ImageIcon(bi));
 		} else {
-			throw new IllegalArgumentException("Unrecognised object trying to update GUI.");
+			view.repaint();
 		}
-		
+		return bi;
 	}
 	
 	/**
@@ -217,19 +234,48 @@ public class VideoFrame extends JFrame implements Observer {
 	 * @return the converted Mat object as a BufferedImage. 
 	 */
 	public static BufferedImage matToBuffImg(Mat img) {
+		return matToBuffImg(img, null);
+	}
+	
+	/**
+	 * Method to convert an OpenCV Mat object to a BufferedImage, reusing an existing BufferedImage if it is 
+	 * the right size and type.  The bytes of the Mat are copied straight into the BufferedImage's data 
+	 * buffer: a 3 channel (BGR) Mat has the same layout as a TYPE_3BYTE_BGR image and a single channel Mat 
+	 * the same as a TYPE_BYTE_GRAY image.
+	 * 
+	 * @param img - the Mat object to convert (8 bit, with 1 or 3 channels).
+	 * @param reuse - the BufferedImage to copy into if possible (may be null).
+	 * @return the converted Mat object as a BufferedImage (reuse, if it could be used).
+	 * @throws IllegalArgumentException - if the Mat is not 8 bit with 1 or 3 channels.
+	 */
+	public static BufferedImage matToBuffImg(Mat img, BufferedImage reuse) {
+		
+		int type;
+		if(img.depth()!=CvType.CV_8U) {
+			throw new IllegalArgumentException("Only 8 bit images can be converted.");
+		}
+		switch(img.channels()) {
+		case 1:
+			type = BufferedImage.TYPE_BYTE_GRAY;
+			break;
+		case 3:
+			type = BufferedImage.TYPE_3BYTE_BGR;
+			break;
+		default:
+			throw new IllegalArgumentException("Only 1 or 3 channel images can be converted.");
+		}
+		
+		BufferedImage output = reuse;
+		if(output==null || output.getType()!=type || output.getWidth()!=img.cols() 
+				|| output.getHeight()!=img.rows()) {
+			output = new BufferedImage(img.cols(), img.rows(), type);
+		}
+		
+		//a submat (e.g. the ROI) has gaps between its rows, so has to be copied to be read in one go.
+		Mat src = img.isContinuous() ? img : img.clone();
+		byte[] data = ((DataBufferByte) output.getRaster().getDataBuffer()).getData();
+		src.get(0, 0, data);
 		
-		MatOfByte bytemat = new MatOfByte();
-    	Highgui.imencode(".jpg", img, bytemat);
-    	byte[] bytes = bytemat.toArray();
-    	InputStream in = new ByteArrayInputStream(bytes);
-    	
-    	BufferedImage output = null;
-    	try {
-    		output = ImageIO.read(in);
-    	} catch (IOException e) {
-    		e.printStackTrace();
-    	}
-    	
 		return output;
 		
 	}
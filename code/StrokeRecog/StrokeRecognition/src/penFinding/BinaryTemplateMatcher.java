@@ -0,0 +1,290 @@
+package penFinding;
+
+import org.opencv.core.Mat;
+
+import strokeData.Coord;
+import strokeData.TempMatchOutput;
+import videoProcessing.ImageWorkspace;
+
+/**
+ * Class to match a binary template against a binary image (e.g. the masks produced by
+ * ProcessImage.filterColour()) entirely in Java.  Each row of the template and the image is packed into
+ * 64-bit words with one bit per pixel, so the number of pixels that differ between a row of the template
+ * and a row of the image can be counted 64 pixels at a time using XOR and Long.bitCount().
+ *
+ * The error of a match is the number of mismatched pixels, and the best match is the location with the
+ * fewest mismatches.  (Since mask pixels are either 0 or 255, the absolute difference error used by
+ * PenLocator is 255 times the mismatch count).
+ *
+ * Objects of this class keep the packed image between calls, so are not thread safe.
+ *
+ * @author Simon Dicken (Student ID: 1378818)
+ * @version 2014-07-31
+ */
+public class BinaryTemplateMatcher {
+
+	private final int tRows;	//the number of rows in the template.
+	private final int tCols;	//the number of columns in the template.
+	private final int tWords;	//the number of 64-bit words in each packed template row.
+	private final long[] templateBits;	//the packed template, tWords per row.
+	private final long lastWordMask;	//the bits of the final word of each template row that are in use.
+
+	private long[] imageBits = new long[0];	//the packed image, imageWords per row.
+	private int imageWords;	//the number of 64-bit words in each packed image row.
+	private int imageRows;	//the number of rows in the packed image.
+	private int imageCols;	//the number of columns in the packed image.
+	
+	private long candidates;	//the number of template locations evaluated in the last search.
+	private long rowsCompared;	//the number of template rows compared in the last search.
+
+	/**
+	 * Constructor for BinaryTemplateMatcher.
+	 *
+	 * @param template - the binary template (8-bit, single channel; any non-zero pixel counts as on).
+	 */
+	public BinaryTemplateMatcher(Mat template) {
+		tRows = template.rows();
+		tCols = template.cols();
+		tWords = (tCols + 63) >>> 6;
+		templateBits = new long[tRows * tWords];
+		pack(template, templateBits, tWords);
+		lastWordMask = ((tCols & 63)==0) ? -1L : (1L << (tCols & 63)) - 1;
+	}
+
+	/**
+	 * Method to find the location in the image with the fewest pixels that differ from the template.
+	 *
+	 * @param src - the binary image to search (8-bit, single channel; any non-zero pixel counts as on).
+	 * @return the location of the best match and the number of mismatched pixels at that location.
+	 */
+	public TempMatchOutput match(Mat src) {
+
+		setImage(src);
+		candidates = 0;
+		rowsCompared = 0;
+
+		long bestError = Long.MAX_VALUE;
+		int bestX = 0;
+		int bestY = 0;
+		for(int y=0; y<=imageRows-tRows; y++) {
+			for(int x=0; x<=imageCols-tCols; x++) {
+				long error = mismatches(x, y, bestError);
+				if(error<bestError) {
+					bestError = error;
+					bestX = x;
+					bestY = y;
+				}
+			}
+		}
+
+		return new TempMatchOutput(new Coord(bestX, bestY), bestError);
+	}
+	
+	/**
+	 * Method to search for the template starting from an expected location and working outwards, in the 
+	 * manner of a sequential similarity detection algorithm.  Locations are visited in square rings of 
+	 * increasing distance from the start, and the mismatch count at each location is abandoned as soon as 
+	 * it reaches the best count found so far.  The search stops altogether once a location with no more 
+	 * than goodEnough mismatches has been found.
+	 * If several locations have equally few mismatches, one from the ring nearest the start is returned.
+	 * 
+	 * @param src - the binary image to search (8-bit, single channel; any non-zero pixel counts as on).
+	 * @param startX - the expected column of the left of the template.
+	 * @param startY - the expected row of the top of the template.
+	 * @param goodEnough - the mismatch count at which a match is accepted without searching further.
+	 * @return the location of the best match found and the number of mismatched pixels at that location.
+	 */
+	public TempMatchOutput matchSpiral(Mat src, int startX, int startY, long goodEnough) {
+		
+		setImage(src);
+		candidates = 0;
+		rowsCompared = 0;
+		
+		int maxX = imageCols - tCols;
+		int maxY = imageRows - tRows;
+		if(maxX<0 || maxY<0) {
+			return new TempMatchOutput(new Coord(0, 0), Long.MAX_VALUE);	//the template does not fit.
+		}
+		int cx = Math.max(0, Math.min(maxX, startX));
+		int cy = Math.max(0, Math.min(maxY, startY));
+		int maxRing = Math.max(Math.max(cx, maxX-cx), Math.max(cy, maxY-cy));
+		
+		long bestError = mismatches(cx, cy, Long.MAX_VALUE);
+		int bestX = cx;
+		int bestY = cy;
+		
+		for(int ring=1; ring<=maxRing && bestError>goodEnough; ring++) {
+			int left = cx - ring;
+			int right = cx + ring;
+			int top = cy - ring;
+			int bottom = cy + ring;
+			
+			//visit the top and bottom rows of the ring, then the remainder of the left and right columns.
+			for(int x=Math.max(0, left); x<=Math.min(maxX, right) && bestError>goodEnough; x++) {
+				if(top>=0) {
+					long error = mismatches(x, top, bestError-1);
+					if(error<bestError) {
+						bestError = error;
+						bestX = x;
+						bestY = top;
+					}
+				}
+				if(bottom<=maxY) {
+					long error = mismatches(x, bottom, bestError-1);
+					if(error<bestError) {
+						bestError = error;
+						bestX = x;
+						bestY = bottom;
+					}
+				}
+			}
+			for(int y=Math.max(0, top+1); y<=Math.min(maxY, bottom-1) && bestError>goodEnough; y++) {
+				if(left>=0) {
+					long error = mismatches(left, y, bestError-1);
+					if(error<bestError) {
+						bestError = error;
+						bestX = left;
+						bestY = y;
+					}
+				}
+				if(right<=maxX) {
+					long error = mismatches(right, y, bestError-1);
+					if(error<bestError) {
+						bestError = error;
+						bestX = right;
+						bestY = y;
+					}
+				}
+			}
+		}
+		
+		return new TempMatchOutput(new Coord(bestX, bestY), bestError);
+	}
+
+	/**
+	 * Method to pack the image to be searched, ready for calls to mismatches().
+	 *
+	 * @param src - the binary image to search (8-bit, single channel; any non-zero pixel counts as on).
+	 */
+	void setImage(Mat src) {
+		imageRows = src.rows();
+		imageCols = src.cols();
+		//each packed row has a spare word at the end, so that a window starting part way through the final
+		//word can always read the word after it.
+		imageWords = ((imageCols + 63) >>> 6) + 1;
+		if(imageBits.length < imageRows * imageWords) {
+			imageBits = new long[imageRows * imageWords];
+		}
+		pack(src, imageBits, imageWords);
+	}
+
+	/**
+	 * Method to count the number of pixels that differ between the template and the packed image with the
+	 * template placed at the specified location.  The count is abandoned as soon as it exceeds the limit.
+	 *
+	 * @param x - the column of the image at which the left of the template is placed.
+	 * @param y - the row of the image at which the top of the template is placed.
+	 * @param limit - the count at which to give up.
+	 * @return the number of mismatched pixels, or a number greater than limit if the count was abandoned.
+	 */
+	long mismatches(int x, int y, long limit) {
+
+		int startWord = x >>> 6;
+		int shift = x & 63;
+		long count = 0;
+		candidates++;
+
+		for(int r=0; r<tRows; r++) {
+			int imageRow = (y+r) * imageWords + startWord;
+			int templateRow = r * tWords;
+			for(int k=0; k<tWords; k++) {
+				long window = imageBits[imageRow + k] >>> shift;
+				if(shift!=0) {
+					window |= imageBits[imageRow + k + 1] << (64 - shift);
+				}
+				long diff = window ^ templateBits[templateRow + k];
+				if(k==tWords-1) {
+					diff &= lastWordMask;
+				}
+				count += Long.bitCount(diff);
+			}
+			if(count>limit) {
+				rowsCompared += r+1;
+				return count;
+			}
+		}
+
+		rowsCompared += tRows;
+		return count;
+	}
+
+	/**
+	 * Method to pack a binary image into words, one bit per pixel.  Bit b of word w of a row holds the pixel
+	 * in column 64*w + b.  Any unused bits at the end of each row are left as 0.
+	 *
+	 * @param src - the binary image (8-bit, single channel).
+	 * @param dst - the array to pack the image into.
+	 * @param wordsPerRow - the number of words given to each row in dst.
+	 */
+	private static void pack(Mat src, long[] dst, int wordsPerRow) {
+
+		ImageWorkspace ws = ImageWorkspace.get();
+		if(!src.isContinuous()) {
+			Mat continuous = ws.getMat("BinaryTemplateMatcher.continuous");
+			src.copyTo(continuous);
+			src = continuous;
+		}
+
+		int rows = src.rows();
+		int cols = src.cols();
+		byte[] pixels = ws.getBytes("BinaryTemplateMatcher.pixels", rows*cols);
+		src.get(0, 0, pixels);
+
+		for(int r=0; r<rows; r++) {
+			int rowStart = r * wordsPerRow;
+			for(int w=0; w<wordsPerRow; w++) {
+				dst[rowStart + w] = 0;
+			}
+			int p = r * cols;
+			for(int c=0; c<cols; c++, p++) {
+				if(pixels[p]!=0) {
+					dst[rowStart + (c >>> 6)] |= 1L << c;
+				}
+			}
+		}
+	}
+
+	/**
+	 * getter for the number of template locations evaluated in the most recent search.
+	 * @return the number of candidate locations evaluated.
+	 */
+	public long getCandidatesEvaluated() {
+		return candidates;
+	}
+	
+	/**
+	 * getter for the number of pixels compared in the most recent search (only the rows compared before a 
+	 * candidate was abandoned are counted).
+	 * @return the number of pixels compared.
+	 */
+	public long getPixelsEvaluated() {
+		return rowsCompared * tCols;
+	}
+	
+	/**
+	 * getter for the number of template rows.
+	 * @return the number of rows in the template.
+	 */
+	public int getTemplateRows() {
+		return tRows;
+	}
+
+	/**
+	 * getter for the number of template columns.
+	 * @return the number of columns in the template.
+	 */
+	public int getTemplateCols() {
+		return tCols;
+	}
+
+}
@@ -0,0 +1,81 @@
+package penFinding;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.highgui.Highgui;
+
+import strokeData.TempMatchOutput;
+import videoProcessing.ProcessImage;
+
+/**
+ * A short benchmark for the PARALLEL_TILED whole frame search.  The filtered template is placed within
+ * frames of random noise at 720p, 1080p and 4K resolutions, and the time taken to find it with the serial
+ * FULL_FRAME search is compared against the parallel tiled search.  Both searches should find the same
+ * location.
+ *
+ * @author Simon Dicken (Student ID: 1378818)
+ * @version 2014-08-01
+ */
+public class ParallelSearchMainTest {
+
+	private static final int[][] RESOLUTIONS = {{1280, 720}, {1920, 1080}, {3840, 2160}};
+	private static final int WARM_UP = 3;
+	private static final int REPEATS = 10;
+
+	public static void main(String[] args) {
+
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+		Mat template = Highgui.imread("C:\\Users\\Simon\\Desktop\\frames3\\template.jpg");
+		template = ProcessImage.filterColour(template, ProcessImage.BLACK_LOW_HSV, ProcessImage.BLACK_HIGH_HSV);
+
+		PenLocator serial = new PenLocator(template);
+		serial.setGlobalSearch(PenLocator.GlobalSearch.FULL_FRAME);
+		PenLocator parallel = new PenLocator(template);
+		parallel.setGlobalSearch(PenLocator.GlobalSearch.PARALLEL_TILED);
+
+		for(int[] res : RESOLUTIONS) {
+
+			//random sparse noise, thresholded to a binary mask like a filtered frame.
+			Mat frame = new Mat(res[1], res[0], CvType.CV_8UC1);
+			Core.randu(frame, 0, 256);
+			Core.compare(frame, new Scalar(240), frame, Core.CMP_GT);
+			int x = res[0] / 3;
+			int y = res[1] / 2;
+			template.copyTo(frame.submat(y, y+template.rows(), x, x+template.cols()));
+
+			double serialMs = time(serial, frame);
+			double parallelMs = time(parallel, frame);
+			TempMatchOutput s = serial.findTemplateGlobal(frame);
+			TempMatchOutput p = parallel.findTemplateGlobal(frame);
+
+			System.out.println(res[0] + "x" + res[1] + ": serial = " + String.format("%.1f", serialMs)
+					+ "ms, parallel = " + String.format("%.1f", parallelMs) + "ms, speedup = "
+					+ String.format("%.2f", serialMs/parallelMs));
+			System.out.println("    serial match (" + s.getBestMatch().getX() + ", " + s.getBestMatch().getY()
+					+ ") error " + s.getError() + ", parallel match (" + p.getBestMatch().getX() + ", "
+					+ p.getBestMatch().getY() + ") error " + p.getError());
+		}
+	}
+
+	/**
+	 * Method to find the mean time taken for a whole frame search.
+	 *
+	 * @param pl - the PenLocator to search with.
+	 * @param frame - the frame to search.
+	 * @return the mean time per search in milliseconds.
+	 */
+	private static double time(PenLocator pl, Mat frame) {
+		for(int i=0; i<WARM_UP; i++) {
+			pl.findTemplateGlobal(frame);
+		}
+		long start = System.nanoTime();
+		for(int i=0; i<REPEATS; i++) {
+			pl.findTemplateGlobal(frame);
+		}
+		return (System.nanoTime() - start) / (1e6 * REPEATS);
+	}
+
+}
@@ -2,6 +2,9 @@ package penFinding;
 
 import strokeData.*;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
 import org.opencv.core.Core;
 import org.opencv.core.Mat;
 import org.opencv.core.Point;
@@ -9,18 +12,82 @@ import org.opencv.core.Scalar;
 import org.opencv.core.Core.MinMaxLocResult;
 import org.opencv.imgproc.Imgproc;
 
+import videoProcessing.ImageWorkspace;
+
 /**
+ * Class to find the location of the pen template within an image.
  * 
+ * Matching the template within a region of interest can be done in more than one way - see MatchMethod
+ * and findTemplate().  Searching a whole frame for the template (e.g. when the tracker has lost the pen)
+ * can also be done in more than one way - see GlobalSearch and findTemplateGlobal().  The whole frame
+ * searches always use cross correlation.
  * 
  * @author Simon Dicken (Student ID: 1378818)
- * @version 2014-07-16
+ * @version 2014-08-01
  */
 public class PenLocator {
 	
+	/**
+	 * The ways in which the template can be matched by findTemplate().
+	 */
+	public enum MatchMethod {
+		/** OpenCV normalised cross correlation, with the absolute difference of the pixels as the error. */
+		CROSS_CORRELATION,
+		/** bit-packed comparison of binary masks, with the number of mismatched pixels as the error. */
+		BINARY,
+		/** as BINARY, but searching outwards from the expected location and stopping early (see 
+		 * findTemplateNear()). */
+		SPIRAL
+	}
+	
+	/**
+	 * The ways in which a whole frame can be searched for the template.
+	 */
+	public enum GlobalSearch {
+		/** match the template at every location at full resolution. */
+		FULL_FRAME,
+		/** match a downsampled template in a downsampled frame, then refine the best candidates. */
+		PYRAMID,
+		/** match the template at every location at full resolution, splitting the frame into tiles which are
+		 * matched concurrently (see setParallelSearch()). */
+		PARALLEL_TILED
+	}
+	
 	private Mat template;
+	private GlobalSearch globalSearch = GlobalSearch.FULL_FRAME;	//how findTemplateGlobal() searches.
+	private MatchMethod matchMethod = MatchMethod.CROSS_CORRELATION;	//how findTemplate() matches.
+	private BinaryTemplateMatcher binaryMatcher;	//the matcher used for binary matching (created when needed).
+	private long goodEnoughError = -1;	//the mismatch count accepted by a spiral search (-1 to use the default).
+	private long candidatesEvaluated;	//the number of template locations evaluated by the last findTemplate().
+	private long pixelsEvaluated;	//the number of pixels compared by the last findTemplate().
+	private Mat[] templatePyramid;	//the template downsampled for each pyramid level (index 0 is full size).
+	private int tileSize = DEFAULT_TILE_SIZE;	//the number of match locations along each side of a tile.
+	private ForkJoinPool searchPool;	//the pool the tiles are matched on (null to use the common pool).
 	
 	private static final int MATCH_METHOD = Imgproc.TM_CCORR_NORMED;
 	
+	//the value of an 'on' pixel in a filtered image, so each mismatched pixel adds this to the absolute 
+	//difference error.
+	private static final int MASK_ON = 255;
+	
+	//by default, a spiral search accepts a match with fewer than 1/DEFAULT_GOOD_ENOUGH_FRACTION of the 
+	//template's pixels mismatched.
+	private static final int DEFAULT_GOOD_ENOUGH_FRACTION = 50;
+	
+	//the smallest the template is allowed to get (in either dimension) at the coarsest pyramid level.  This
+	//determines how many pyramid levels are used.
+	private static final int MIN_PYRAMID_TEMPLATE_SIZE = 8;
+	//the number of best matches at the coarsest pyramid level that are refined at full resolution.
+	private static final int PYRAMID_CANDIDATES = 3;
+	//the value used to blank out the area around a coarse match that has already been used.  (Normalised
+	//cross correlation scores are never negative).
+	private static final Scalar BLANKED = new Scalar(-1);
+	//the default number of match locations along each side of a tile in a parallel tiled search.
+	private static final int DEFAULT_TILE_SIZE = 256;
+	//the workspace scratch images used to hold each level of the frame pyramid.
+	private static final String[] PYRAMID_SCRATCH = {"PenLocator.pyramid1", "PenLocator.pyramid2", 
+			"PenLocator.pyramid3", "PenLocator.pyramid4", "PenLocator.pyramid5"};
+	
 	public PenLocator(Mat temp) {
 		this.template = temp;
 	}
@@ -31,13 +98,75 @@ public class PenLocator {
 	}
 	
 	/**
-	 * (Note: amended from the algorithm on the OpenCV template matching tutorial page)
+	 * Method to find the best match for the template within an image (normally a small region of interest)
+	 * using the match method chosen by setMatchMethod().
+	 * Note that the units of the error depend on the match method (see convertErrorThreshold()).
 	 * 
-	 * @param main
-	 * @param template
-	 * @return
+	 * @param src - the (filtered) image to search.
+	 * @return the location of the best match and the error on the match at that location.
 	 */
 	public TempMatchOutput findTemplate(Mat src) {
+		if(matchMethod!=MatchMethod.CROSS_CORRELATION) {
+			BinaryTemplateMatcher matcher = getBinaryMatcher();
+			TempMatchOutput out = matcher.match(src);
+			candidatesEvaluated = matcher.getCandidatesEvaluated();
+			pixelsEvaluated = matcher.getPixelsEvaluated();
+			return out;
+		}
+		
+		//cross correlation evaluates every pixel of the template at every location.
+		long locations = (long) Math.max(0, src.rows()-template.rows()+1) 
+				* Math.max(0, src.cols()-template.cols()+1);
+		candidatesEvaluated = locations;
+		pixelsEvaluated = locations * template.rows() * template.cols();
+		return findTemplateCrossCorrelation(src);
+	}
+	
+	/**
+	 * Method to find the best match for the template within an image when there is an expected location
+	 * for it (e.g. from the tracking filter).  With the SPIRAL match method, locations are searched outwards
+	 * from the expected location, each location is abandoned as soon as its error exceeds the best found so
+	 * far, and the search stops as soon as the error is good enough (see setGoodEnoughError()).  With the 
+	 * other match methods this is the same as findTemplate().
+	 * 
+	 * @param src - the (filtered) image to search.
+	 * @param expectedX - the expected column of the left of the template within src.
+	 * @param expectedY - the expected row of the top of the template within src.
+	 * @return the location of the best match and the error on the match at that location.
+	 */
+	public TempMatchOutput findTemplateNear(Mat src, int expectedX, int expectedY) {
+		if(matchMethod!=MatchMethod.SPIRAL) {
+			return findTemplate(src);
+		}
+		
+		BinaryTemplateMatcher matcher = getBinaryMatcher();
+		long goodEnough = (goodEnoughError>=0) ? goodEnoughError 
+				: template.rows() * template.cols() / DEFAULT_GOOD_ENOUGH_FRACTION;
+		TempMatchOutput out = matcher.matchSpiral(src, expectedX, expectedY, goodEnough);
+		candidatesEvaluated = matcher.getCandidatesEvaluated();
+		pixelsEvaluated = matcher.getPixelsEvaluated();
+		return out;
+	}
+	
+	/**
+	 * getter for the binary matcher, which is created the first time it is needed.
+	 * 
+	 * @return the binary matcher for the template.
+	 */
+	private BinaryTemplateMatcher getBinaryMatcher() {
+		if(binaryMatcher==null) {
+			binaryMatcher = new BinaryTemplateMatcher(template);
+		}
+		return binaryMatcher;
+	}
+	
+	/**
+	 * (Note: amended from the algorithm on the OpenCV template matching tutorial page)
+	 * 
+	 * @param src - the (filtered) image to search.
+	 * @return the location of the best match and the absolute difference error at that location.
+	 */
+	private TempMatchOutput findTemplateCrossCorrelation(Mat src) {
 		
 		//check template is smaller than src in both dimensions
 		if(src.size().height < template.size().height || src.size().width < template.size().width) {
@@ -46,9 +175,9 @@ public class PenLocator {
 		}
 		
 		//Match the template and normalise the result
-		Mat result = new Mat();
+		Mat result = ImageWorkspace.get().getMat("PenLocator.result");
 		Imgproc.matchTemplate(src, template, result, MATCH_METHOD);
-		Core.normalize(result, result, 0, 1, Core.NORM_MINMAX, -1, new Mat());
+		Core.normalize(result, result, 0, 1, Core.NORM_MINMAX);
 
 		//Localizing the best match with minMaxLoc
 		MinMaxLocResult mmr = Core.minMaxLoc(result);
@@ -71,6 +200,246 @@ public class PenLocator {
 	}
 	
 	
+	/**
+	 * Method to search a whole frame for the template, using the search method chosen by setGlobalSearch().
+	 * 
+	 * @param src - the (filtered) frame to search.
+	 * @return the location of the best match and the error on the match at that location.
+	 */
+	public TempMatchOutput findTemplateGlobal(Mat src) {
+		switch(globalSearch) {
+		case PYRAMID:
+			return findTemplatePyramid(src);
+		case PARALLEL_TILED:
+			return findTemplateParallel(src);
+		default:
+			return findTemplateCrossCorrelation(src);
+		}
+	}
+	
+	/**
+	 * Method to search for the template using an image pyramid.  The frame and template are both 
+	 * repeatedly downsampled by a factor of 2, and the template is matched against the frame at the 
+	 * coarsest level.  The few best locations at that level are then refined by matching the full size 
+	 * template within a small window of the full resolution frame, and the refined location with the lowest
+	 * error is returned.
+	 * The number of levels is chosen so that the template stays at least MIN_PYRAMID_TEMPLATE_SIZE pixels in
+	 * each dimension.  If the template is too small for even one level, the whole frame is searched at full
+	 * resolution.
+	 * 
+	 * @param src - the (filtered) frame to search.
+	 * @return the location of the best match and the error on the match at that location.
+	 */
+	public TempMatchOutput findTemplatePyramid(Mat src) {
+		
+		Mat[] templates = getTemplatePyramid();
+		int levels = templates.length - 1;
+		if(levels==0) {
+			return findTemplateCrossCorrelation(src);
+		}
+		
+		//downsample the frame to the coarsest level.
+		ImageWorkspace ws = ImageWorkspace.get();
+		Mat coarse = src;
+		for(int l=0; l<levels; l++) {
+			Mat next = ws.getMat(PYRAMID_SCRATCH[l]);
+			Imgproc.pyrDown(coarse, next);
+			coarse = next;
+		}
+		Mat coarseTemplate = templates[levels];
+		if(coarse.rows() < coarseTemplate.rows() || coarse.cols() < coarseTemplate.cols()) {
+			return findTemplateCrossCorrelation(src);
+		}
+		
+		//match at the coarsest level.  (The refinement uses findTemplateCrossCorrelation(), so the coarse 
+		//result must have its own scratch image).
+		Mat result = ws.getMat("PenLocator.coarseResult");
+		Imgproc.matchTemplate(coarse, coarseTemplate, result, MATCH_METHOD);
+		
+		//refine each of the best coarse matches, blanking out the area around each one so that the next
+		//best match is a distinct location.
+		int margin = (1 << levels) + 1;	//how far the full resolution match may be from the coarse estimate.
+		TempMatchOutput best = null;
+		for(int k=0; k<PYRAMID_CANDIDATES; k++) {
+			MinMaxLocResult mmr = Core.minMaxLoc(result);
+			if(k>0 && mmr.maxVal<0) {
+				break;	//all locations have been used up.
+			}
+			int cx = (int) mmr.maxLoc.x;
+			int cy = (int) mmr.maxLoc.y;
+			
+			TempMatchOutput refined = refineMatch(src, cx << levels, cy << levels, margin);
+			if(best==null || refined.getError() < best.getError()) {
+				best = refined;
+			}
+			
+			int blankColStart = Math.max(0, cx - coarseTemplate.cols()/2);
+			int blankColEnd = Math.min(result.cols(), cx + coarseTemplate.cols()/2 + 1);
+			int blankRowStart = Math.max(0, cy - coarseTemplate.rows()/2);
+			int blankRowEnd = Math.min(result.rows(), cy + coarseTemplate.rows()/2 + 1);
+			result.submat(blankRowStart, blankRowEnd, blankColStart, blankColEnd).setTo(BLANKED);
+		}
+		
+		return best;
+	}
+	
+	/**
+	 * Method to search a whole frame for the template by splitting it into tiles and matching the tiles 
+	 * concurrently on a ForkJoin pool.  Each tile covers tileSize x tileSize match locations, so the area of
+	 * the frame it searches is padded by the template size on its right and bottom edges, and every
+	 * location in the frame is covered by exactly one tile.  The tile with the highest correlation score 
+	 * gives the best match, so the result is the same as from a serial whole frame search.
+	 * 
+	 * @param src - the (filtered) frame to search.
+	 * @return the location of the best match and the error on the match at that location.
+	 */
+	public TempMatchOutput findTemplateParallel(Mat src) {
+		
+		int resultRows = src.rows() - template.rows() + 1;
+		int resultCols = src.cols() - template.cols() + 1;
+		if(resultRows<=0 || resultCols<=0) {
+			return findTemplateCrossCorrelation(src);
+		}
+		int tileRows = (resultRows + tileSize - 1) / tileSize;
+		int tileCols = (resultCols + tileSize - 1) / tileSize;
+		if(tileRows*tileCols==1) {
+			return findTemplateCrossCorrelation(src);
+		}
+		
+		ForkJoinPool pool = (searchPool!=null) ? searchPool : ForkJoinPool.commonPool();
+		TileMatch best = pool.invoke(new TileSearch(src, template, tileSize, tileCols, 0, tileRows*tileCols));
+		
+		Mat match = src.submat(best.y, best.y+template.rows(), best.x, best.x+template.cols());
+		return new TempMatchOutput(new Coord(best.x, best.y), calcDiff(match, template));
+	}
+	
+	/**
+	 * The best match found within one or more tiles of a parallel tiled search.
+	 */
+	private static class TileMatch {
+		
+		private final double score;	//the (un-normalised) correlation score of the match.
+		private final int x;	//the column of the frame at which the left of the template is placed.
+		private final int y;	//the row of the frame at which the top of the template is placed.
+		
+		private TileMatch(double score, int x, int y) {
+			this.score = score;
+			this.x = x;
+			this.y = y;
+		}
+		
+		/**
+		 * Method to choose the better of two matches.  Ties go to the match which comes first in row order,
+		 * as in a serial search.
+		 * 
+		 * @param other - the match to compare with.
+		 * @return the better match.
+		 */
+		private TileMatch better(TileMatch other) {
+			if(other.score!=score) {
+				return (other.score>score) ? other : this;
+			}
+			return (other.y<y || (other.y==y && other.x<x)) ? other : this;
+		}
+	}
+	
+	/**
+	 * Task to match the template within a range of tiles, splitting the range in two until there is a 
+	 * single tile to match.
+	 */
+	private static class TileSearch extends RecursiveTask<TileMatch> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final Mat src;	//the frame being searched.
+		private final Mat template;	//the template being matched.
+		private final int tileSize;	//the number of match locations along each side of a tile.
+		private final int tileCols;	//the number of tiles across the frame.
+		private final int first;	//the first tile to search (tiles are numbered in row order).
+		private final int end;	//one past the last tile to search.
+		
+		private TileSearch(Mat src, Mat template, int tileSize, int tileCols, int first, int end) {
+			this.src = src;
+			this.template = template;
+			this.tileSize = tileSize;
+			this.tileCols = tileCols;
+			this.first = first;
+			this.end = end;
+		}
+		
+		@Override
+		protected TileMatch compute() {
+			if(end-first > 1) {
+				int mid = (first + end) >>> 1;
+				TileSearch left = new TileSearch(src, template, tileSize, tileCols, first, mid);
+				TileSearch right = new TileSearch(src, template, tileSize, tileCols, mid, end);
+				right.fork();
+				TileMatch leftBest = left.compute();
+				return leftBest.better(right.join());
+			}
+			
+			int rowStart = (first / tileCols) * tileSize;
+			int colStart = (first % tileCols) * tileSize;
+			int rowEnd = Math.min(src.rows(), rowStart + tileSize + template.rows() - 1);
+			int colEnd = Math.min(src.cols(), colStart + tileSize + template.cols() - 1);
+			
+			//each worker thread has its own workspace, so the tiles do not share a result image.
+			Mat result = ImageWorkspace.get().getMat("PenLocator.tileResult");
+			Imgproc.matchTemplate(src.submat(rowStart, rowEnd, colStart, colEnd), template, result, MATCH_METHOD);
+			MinMaxLocResult mmr = Core.minMaxLoc(result);
+			return new TileMatch(mmr.maxVal, colStart + (int) mmr.maxLoc.x, rowStart + (int) mmr.maxLoc.y);
+		}
+	}
+	
+	/**
+	 * Method to match the full size template within a small window of the frame around an estimated 
+	 * location.
+	 * 
+	 * @param src - the (filtered) frame to search.
+	 * @param x - the estimated x coordinate of the top left corner of the match.
+	 * @param y - the estimated y coordinate of the top left corner of the match.
+	 * @param margin - how far in each direction from the estimate to search.
+	 * @return the location of the best match within the window (in frame coordinates) and the error on 
+	 * the match at that location.
+	 */
+	private TempMatchOutput refineMatch(Mat src, int x, int y, int margin) {
+		
+		//the window must always be at least as big as the template.
+		int colStart = Math.max(0, Math.min(x - margin, src.cols() - template.cols()));
+		int colEnd = Math.min(src.cols(), Math.max(x + margin + template.cols(), colStart + template.cols()));
+		int rowStart = Math.max(0, Math.min(y - margin, src.rows() - template.rows()));
+		int rowEnd = Math.min(src.rows(), Math.max(y + margin + template.rows(), rowStart + template.rows()));
+		
+		TempMatchOutput local = findTemplateCrossCorrelation(src.submat(rowStart, rowEnd, colStart, colEnd));
+		Coord bestMatch = local.getBestMatch();
+		bestMatch.setX(bestMatch.getX() + colStart);
+		bestMatch.setY(bestMatch.getY() + rowStart);
+		return local;
+	}
+	
+	/**
+	 * getter for the template pyramid, which is built the first time it is needed.
+	 * 
+	 * @return the template at each pyramid level, starting with the full size template.
+	 */
+	private Mat[] getTemplatePyramid() {
+		if(templatePyramid==null) {
+			int levels = 0;
+			int minDim = Math.min(template.rows(), template.cols());
+			while(levels < PYRAMID_SCRATCH.length && (minDim >> (levels+1)) >= MIN_PYRAMID_TEMPLATE_SIZE) {
+				levels++;
+			}
+			Mat[] pyramid = new Mat[levels+1];
+			pyramid[0] = template;
+			for(int l=1; l<=levels; l++) {
+				pyramid[l] = new Mat();
+				Imgproc.pyrDown(pyramid[l-1], pyramid[l]);
+			}
+			templatePyramid = pyramid;
+		}
+		return templatePyramid;
+	}
+	
 	private static long calcDiff(Mat img1, Mat img2) {
 		
 		if(img1.size().height != img2.size().height || img1.size().width != img2.size().width) {
@@ -79,7 +448,7 @@ public class PenLocator {
 		}
 		
 		long sum=0;
-		Mat diff = new Mat();
+		Mat diff = ImageWorkspace.get().getMat("PenLocator.diff");
 		Core.absdiff(img1, img2, diff);
 		Scalar sumAll = Core.sumElems(diff);
 		for(int k=0; k<3; k++) {
@@ -95,5 +464,92 @@ public class PenLocator {
 		return template;
 	}
 	
+	/**
+	 * setter for the method used by findTemplateGlobal() to search a whole frame.
+	 * 
+	 * @param globalSearch - the search method to use.
+	 */
+	public void setGlobalSearch(GlobalSearch globalSearch) {
+		this.globalSearch = globalSearch;
+	}
+	
+	public GlobalSearch getGlobalSearch() {
+		return globalSearch;
+	}
+	
+	/**
+	 * setter for how a PARALLEL_TILED search divides up the frame and how many threads it uses.
+	 * Smaller tiles balance the work better between threads, at the cost of matching more of the padding 
+	 * around each tile.
+	 * 
+	 * @param tileSize - the number of match locations along each side of a tile.
+	 * @param parallelism - the number of threads to match tiles on (0 to use the common ForkJoin pool).
+	 */
+	public void setParallelSearch(int tileSize, int parallelism) {
+		if(tileSize<1) {
+			throw new IllegalArgumentException("Tile size must be at least 1.");
+		}
+		this.tileSize = tileSize;
+		if(searchPool!=null) {
+			searchPool.shutdown();
+		}
+		searchPool = (parallelism>0) ? new ForkJoinPool(parallelism) : null;
+	}
+	
+	/**
+	 * setter for the method used by findTemplate() to match the template.  The binary method only works on
+	 * filtered (binary) images, but is much cheaper on small images such as the region of interest.
+	 * 
+	 * @param matchMethod - the match method to use.
+	 */
+	public void setMatchMethod(MatchMethod matchMethod) {
+		this.matchMethod = matchMethod;
+	}
+	
+	public MatchMethod getMatchMethod() {
+		return matchMethod;
+	}
+	
+	/**
+	 * Method to convert an error threshold given as an absolute pixel difference (as from cross correlation
+	 * matching) into the units of the errors returned by findTemplate() with the current match method.
+	 * 
+	 * @param absDiffThreshold - the threshold as an absolute difference summed over the template.
+	 * @return the equivalent threshold for the current match method.
+	 */
+	public long convertErrorThreshold(long absDiffThreshold) {
+		return (matchMethod!=MatchMethod.CROSS_CORRELATION) ? absDiffThreshold / MASK_ON : absDiffThreshold;
+	}
+	
+	/**
+	 * setter for the number of mismatched pixels at which a SPIRAL search accepts a match without looking 
+	 * any further.  By default this is 1/50th of the template's pixels.
+	 * 
+	 * @param goodEnoughError - the accepted number of mismatched pixels.
+	 */
+	public void setGoodEnoughError(long goodEnoughError) {
+		this.goodEnoughError = goodEnoughError;
+	}
+	
+	/**
+	 * getter for the number of template locations evaluated by the most recent findTemplate() or 
+	 * findTemplateNear() call.
+	 * 
+	 * @return the number of candidate locations evaluated.
+	 */
+	public long getCandidatesEvaluated() {
+		return candidatesEvaluated;
+	}
+	
+	/**
+	 * getter for the number of pixels compared by the most recent findTemplate() or findTemplateNear() 
+	 * call.
+	 * 
+	 * @return the number of pixels compared.
+	 */
+	public long getPixelsEvaluated() {
+		return pixelsEvaluated;
+	}
+	
 	
 }
@@ -0,0 +1,423 @@
+package penTracking;
+
+/**
+ * Class containing matrix operations on small fixed-size matrices stored as flat arrays of doubles in
+ * row-major order (element (i, j) of an r x c matrix is at index i*c + j).  A vector is stored as a flat
+ * array of its elements.
+ *
+ * Unlike MatrixOps, none of the operations allocate: the result is written into a destination array
+ * provided by the caller, which can be reused from call to call.  Operations which read each element
+ * only once before writing it (addition, subtraction, scaling) can be done in place by passing one of the
+ * inputs as the destination.  The destination of a multiplication, transpose or inverse must not be one of
+ * its inputs.
+ *
+ * The square 2x2, 4x4 and 6x6 cases have specialised versions with the inner loops written out, and the
+ * general versions pass those sizes on to them.
+ *
+ * @author Simon Dicken (Student ID: 1378818)
+ * @version 2014-08-05
+ */
+public class FlatMatrixOps {
+
+	/**
+	 * Multiply two matrices together (dst = a.b).
+	 *
+	 * @param a - the first matrix (aRows x inner).
+	 * @param b - the second matrix (inner x bCols).
+	 * @param aRows - the number of rows in a.
+	 * @param inner - the number of columns in a and rows in b.
+	 * @param bCols - the number of columns in b.
+	 * @param dst - the array to write the aRows x bCols result into (must not be a or b).
+	 */
+	public static void mult(double[] a, double[] b, int aRows, int inner, int bCols, double[] dst) {
+
+		if(aRows==inner && inner==bCols) {
+			switch(inner) {
+			case 2:
+				mult2(a, b, dst);
+				return;
+			case 4:
+				mult4(a, b, dst);
+				return;
+			case 6:
+				mult6(a, b, dst);
+				return;
+			}
+		}
+
+		for(int i=0; i<aRows; i++) {
+			int aRow = i*inner;
+			for(int j=0; j<bCols; j++) {
+				double sum = 0;
+				for(int k=0; k<inner; k++) {
+					sum += a[aRow+k] * b[k*bCols+j];
+				}
+				dst[i*bCols+j] = sum;
+			}
+		}
+	}
+
+	/**
+	 * Multiply two 2x2 matrices together (dst = a.b).
+	 *
+	 * @param a - the first matrix.
+	 * @param b - the second matrix.
+	 * @param dst - the array to write the result into (must not be a or b).
+	 */
+	public static void mult2(double[] a, double[] b, double[] dst) {
+		double a00 = a[0], a01 = a[1], a10 = a[2], a11 = a[3];
+		double b00 = b[0], b01 = b[1], b10 = b[2], b11 = b[3];
+		dst[0] = a00*b00 + a01*b10;
+		dst[1] = a00*b01 + a01*b11;
+		dst[2] = a10*b00 + a11*b10;
+		dst[3] = a10*b01 + a11*b11;
+	}
+
+	/**
+	 * Multiply two 4x4 matrices together (dst = a.b).
+	 *
+	 * @param a - the first matrix.
+	 * @param b - the second matrix.
+	 * @param dst - the array to write the result into (must not be a or b).
+	 */
+	public static void mult4(double[] a, double[] b, double[] dst) {
+		for(int i=0; i<16; i+=4) {
+			double ai0 = a[i], ai1 = a[i+1], ai2 = a[i+2], ai3 = a[i+3];
+			dst[i]   = ai0*b[0] + ai1*b[4] + ai2*b[8]  + ai3*b[12];
+			dst[i+1] = ai0*b[1] + ai1*b[5] + ai2*b[9]  + ai3*b[13];
+			dst[i+2] = ai0*b[2] + ai1*b[6] + ai2*b[10] + ai3*b[14];
+			dst[i+3] = ai0*b[3] + ai1*b[7] + ai2*b[11] + ai3*b[15];
+		}
+	}
+
+	/**
+	 * Multiply two 6x6 matrices together (dst = a.b).
+	 *
+	 * @param a - the first matrix.
+	 * @param b - the second matrix.
+	 * @param dst - the array to write the result into (must not be a or b).
+	 */
+	public static void mult6(double[] a, double[] b, double[] dst) {
+		for(int i=0; i<36; i+=6) {
+			double ai0 = a[i], ai1 = a[i+1], ai2 = a[i+2], ai3 = a[i+3], ai4 = a[i+4], ai5 = a[i+5];
+			for(int j=0; j<6; j++) {
+				dst[i+j] = ai0*b[j] + ai1*b[6+j] + ai2*b[12+j] + ai3*b[18+j] + ai4*b[24+j] + ai5*b[30+j];
+			}
+		}
+	}
+
+	/**
+	 * Multiply a matrix by a column vector (dst = a.v).
+	 *
+	 * @param a - the matrix (rows x cols).
+	 * @param v - the vector (cols elements).
+	 * @param rows - the number of rows in a.
+	 * @param cols - the number of columns in a.
+	 * @param dst - the array to write the result (rows elements) into (must not be v).
+	 */
+	public static void multVector(double[] a, double[] v, int rows, int cols, double[] dst) {
+		if(rows==4 && cols==4) {
+			double v0 = v[0], v1 = v[1], v2 = v[2], v3 = v[3];
+			dst[0] = a[0]*v0  + a[1]*v1  + a[2]*v2  + a[3]*v3;
+			dst[1] = a[4]*v0  + a[5]*v1  + a[6]*v2  + a[7]*v3;
+			dst[2] = a[8]*v0  + a[9]*v1  + a[10]*v2 + a[11]*v3;
+			dst[3] = a[12]*v0 + a[13]*v1 + a[14]*v2 + a[15]*v3;
+			return;
+		}
+		for(int i=0; i<rows; i++) {
+			double sum = 0;
+			for(int k=0; k<cols; k++) {
+				sum += a[i*cols+k] * v[k];
+			}
+			dst[i] = sum;
+		}
+	}
+
+	/**
+	 * Multiply a row vector by a matrix (dst = v.a).
+	 *
+	 * @param v - the vector (rows elements).
+	 * @param a - the matrix (rows x cols).
+	 * @param rows - the number of rows in a.
+	 * @param cols - the number of columns in a.
+	 * @param dst - the array to write the result (cols elements) into (must not be v).
+	 */
+	public static void vectorMult(double[] v, double[] a, int rows, int cols, double[] dst) {
+		if(rows==4 && cols==4) {
+			double v0 = v[0], v1 = v[1], v2 = v[2], v3 = v[3];
+			dst[0] = v0*a[0] + v1*a[4] + v2*a[8]  + v3*a[12];
+			dst[1] = v0*a[1] + v1*a[5] + v2*a[9]  + v3*a[13];
+			dst[2] = v0*a[2] + v1*a[6] + v2*a[10] + v3*a[14];
+			dst[3] = v0*a[3] + v1*a[7] + v2*a[11] + v3*a[15];
+			return;
+		}
+		for(int j=0; j<cols; j++) {
+			double sum = 0;
+			for(int k=0; k<rows; k++) {
+				sum += v[k] * a[k*cols+j];
+			}
+			dst[j] = sum;
+		}
+	}
+
+	/**
+	 * Transpose a matrix.
+	 *
+	 * @param a - the matrix (rows x cols).
+	 * @param rows - the number of rows in a.
+	 * @param cols - the number of columns in a.
+	 * @param dst - the array to write the cols x rows result into (must not be a).
+	 */
+	public static void transpose(double[] a, int rows, int cols, double[] dst) {
+		for(int i=0; i<rows; i++) {
+			for(int j=0; j<cols; j++) {
+				dst[j*rows+i] = a[i*cols+j];
+			}
+		}
+	}
+
+	/**
+	 * Transpose a square matrix in place.
+	 *
+	 * @param a - the matrix (n x n).
+	 * @param n - the dimensions of a.
+	 */
+	public static void transposeInPlace(double[] a, int n) {
+		for(int i=0; i<n; i++) {
+			for(int j=i+1; j<n; j++) {
+				double tmp = a[i*n+j];
+				a[i*n+j] = a[j*n+i];
+				a[j*n+i] = tmp;
+			}
+		}
+	}
+
+	/**
+	 * Add two matrices or vectors of the same size (dst = a + b).  Can be done in place.
+	 *
+	 * @param a - the first matrix.
+	 * @param b - the second matrix.
+	 * @param length - the number of elements in each.
+	 * @param dst - the array to write the result into (may be a or b).
+	 */
+	public static void add(double[] a, double[] b, int length, double[] dst) {
+		for(int i=0; i<length; i++) {
+			dst[i] = a[i] + b[i];
+		}
+	}
+
+	/**
+	 * Subtract one matrix or vector from another of the same size (dst = a - b).  Can be done in place.
+	 *
+	 * @param a - the matrix to subtract from.
+	 * @param b - the matrix to subtract.
+	 * @param length - the number of elements in each.
+	 * @param dst - the array to write the result into (may be a or b).
+	 */
+	public static void subtract(double[] a, double[] b, int length, double[] dst) {
+		for(int i=0; i<length; i++) {
+			dst[i] = a[i] - b[i];
+		}
+	}
+
+	/**
+	 * Multiply a matrix or vector by a scalar (dst = lambda*a).  Can be done in place.
+	 *
+	 * @param a - the matrix.
+	 * @param lambda - the scalar.
+	 * @param length - the number of elements in a.
+	 * @param dst - the array to write the result into (may be a).
+	 */
+	public static void scale(double[] a, double lambda, int length, double[] dst) {
+		for(int i=0; i<length; i++) {
+			dst[i] = a[i] * lambda;
+		}
+	}
+
+	/**
+	 * Set a square matrix to the identity matrix.
+	 *
+	 * @param n - the dimensions of the matrix.
+	 * @param dst - the array to write the identity matrix into.
+	 */
+	public static void identity(int n, double[] dst) {
+		for(int i=0; i<n*n; i++) {
+			dst[i] = 0;
+		}
+		for(int i=0; i<n; i++) {
+			dst[i*n+i] = 1;
+		}
+	}
+
+	/**
+	 * Invert a 2x2 matrix (as for MatrixOps.matrix2dInverse()).
+	 *
+	 * @param a - the matrix.
+	 * @param dst - the array to write the inverse into (must not be a).
+	 */
+	public static void inverse2(double[] a, double[] dst) {
+		double det = a[0]*a[3] - a[1]*a[2];
+		dst[0] = (1/det) * a[3];
+		dst[3] = (1/det) * a[0];
+		dst[1] = (-1/det) * a[1];
+		dst[2] = (-1/det) * a[2];
+	}
+
+	/**
+	 * Invert a square matrix using Gauss-Jordan elimination with partial pivoting.
+	 *
+	 * @param a - the matrix (n x n).
+	 * @param n - the dimensions of a.
+	 * @param dst - the array to write the inverse into (must not be a).
+	 * @param work - a scratch array of at least n*n elements (must not be a or dst).  a is left unchanged.
+	 * @throws IllegalArgumentException - if the matrix is singular.
+	 */
+	public static void inverse(double[] a, int n, double[] dst, double[] work) {
+
+		if(n==2) {
+			inverse2(a, dst);
+			return;
+		}
+
+		System.arraycopy(a, 0, work, 0, n*n);
+		identity(n, dst);
+
+		for(int col=0; col<n; col++) {
+			//choose the row with the largest value in this column as the pivot.
+			int pivot = col;
+			double max = Math.abs(work[col*n+col]);
+			for(int r=col+1; r<n; r++) {
+				double val = Math.abs(work[r*n+col]);
+				if(val>max) {
+					max = val;
+					pivot = r;
+				}
+			}
+			if(max==0) {
+				throw new IllegalArgumentException("Matrix is singular.");
+			}
+			if(pivot!=col) {
+				swapRows(work, n, pivot, col);
+				swapRows(dst, n, pivot, col);
+			}
+
+			//scale the pivot row so the pivot is 1, then eliminate the column from every other row.
+			double inv = 1/work[col*n+col];
+			for(int j=0; j<n; j++) {
+				work[col*n+j] *= inv;
+				dst[col*n+j] *= inv;
+			}
+			for(int r=0; r<n; r++) {
+				double factor = work[r*n+col];
+				if(r==col || factor==0) {
+					continue;
+				}
+				for(int j=0; j<n; j++) {
+					work[r*n+j] -= factor * work[col*n+j];
+					dst[r*n+j] -= factor * dst[col*n+j];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Swap two rows of a square matrix.
+	 *
+	 * @param a - the matrix (n x n).
+	 * @param n - the dimensions of a.
+	 * @param r1 - the first row.
+	 * @param r2 - the second row.
+	 */
+	private static void swapRows(double[] a, int n, int r1, int r2) {
+		for(int j=0; j<n; j++) {
+			double tmp = a[r1*n+j];
+			a[r1*n+j] = a[r2*n+j];
+			a[r2*n+j] = tmp;
+		}
+	}
+
+	/**
+	 * Calculate the Cholesky decomposition of a symmetric positive definite matrix, a = L.L', where L is
+	 * lower triangular.
+	 *
+	 * @param a - the matrix (n x n).  Only the lower triangle is read.
+	 * @param n - the dimensions of a.
+	 * @param dst - the array to write L into (the upper triangle is set to 0).  May be a.
+	 * @throws IllegalArgumentException - if the matrix is not positive definite.
+	 */
+	public static void cholesky(double[] a, int n, double[] dst) {
+		for(int i=0; i<n; i++) {
+			for(int j=0; j<=i; j++) {
+				double sum = a[i*n+j];
+				for(int k=0; k<j; k++) {
+					sum -= dst[i*n+k] * dst[j*n+k];
+				}
+				if(i==j) {
+					if(sum<=0) {
+						throw new IllegalArgumentException("Matrix is not positive definite.");
+					}
+					dst[i*n+i] = Math.sqrt(sum);
+				} else {
+					dst[i*n+j] = sum / dst[j*n+j];
+				}
+			}
+			for(int j=i+1; j<n; j++) {
+				dst[i*n+j] = 0;
+			}
+		}
+	}
+
+	/**
+	 * Solve a.x = b for x, given the Cholesky decomposition L of a (see cholesky()).
+	 *
+	 * @param l - the Cholesky decomposition of a (n x n, lower triangular).
+	 * @param n - the dimensions of a.
+	 * @param b - the right hand side vector (n elements).
+	 * @param dst - the array to write x into (n elements).  May be b.
+	 */
+	public static void choleskySolve(double[] l, int n, double[] b, double[] dst) {
+		//forward substitution for L.y = b.
+		for(int i=0; i<n; i++) {
+			double sum = b[i];
+			for(int k=0; k<i; k++) {
+				sum -= l[i*n+k] * dst[k];
+			}
+			dst[i] = sum / l[i*n+i];
+		}
+		//back substitution for L'.x = y.
+		for(int i=n-1; i>=0; i--) {
+			double sum = dst[i];
+			for(int k=i+1; k<n; k++) {
+				sum -= l[k*n+i] * dst[k];
+			}
+			dst[i] = sum / l[i*n+i];
+		}
+	}
+
+	/**
+	 * Convert a 2D array into a flat row-major array.
+	 *
+	 * @param a - the 2D matrix.
+	 * @param dst - the array to write the flat matrix into.
+	 */
+	public static void fromArray(double[][] a, double[] dst) {
+		int cols = a[0].length;
+		for(int i=0; i<a.length; i++) {
+			System.arraycopy(a[i], 0, dst, i*cols, cols);
+		}
+	}
+
+	/**
+	 * Convert a flat row-major array into a 2D array.
+	 *
+	 * @param a - the flat matrix.
+	 * @param dst - the 2D array to write the matrix into (its dimensions give the shape of the matrix).
+	 */
+	public static void toArray(double[] a, double[][] dst) {
+		int cols = dst[0].length;
+		for(int i=0; i<dst.length; i++) {
+			System.arraycopy(a, i*cols, dst[i], 0, cols);
+		}
+	}
+
+}
@@ -0,0 +1,190 @@
+package penTracking;
+
+import java.util.Random;
+
+/**
+ * A short test class for the FlatMatrixOps class.  Checks the results of each operation against the same
+ * operation in MatrixOps (or, for the operations MatrixOps does not have, against the defining property of
+ * the result) for random 2x2, 4x4 and 6x6 matrices, then times the 4x4 multiplication, which is the most
+ * common operation in the Kalman filter, with both classes.
+ *
+ * @author Simon Dicken (Student ID: 1378818)
+ * @version 2014-08-05
+ */
+public class FlatMatrixOpsMainTest {
+
+	private static final int[] SIZES = {2, 4, 6};
+	private static final int TRIALS = 1000;
+	private static final double TOLERANCE = 1e-9;
+	private static final int TIMING_ITERATIONS = 5000000;
+
+	private static final Random RANDOM = new Random(1);
+	private static int failures = 0;
+
+	public static void main(String[] args) {
+
+		for(int n : SIZES) {
+			for(int t=0; t<TRIALS; t++) {
+				checkSize(n);
+			}
+		}
+		System.out.println("Correctness checks: " + failures + " failures.");
+
+		timeMult4();
+	}
+
+	/**
+	 * Method to check each operation on one set of random n x n matrices.
+	 *
+	 * @param n - the dimensions of the matrices.
+	 */
+	private static void checkSize(int n) {
+
+		double[][] a = randomMatrix(n);
+		double[][] b = randomMatrix(n);
+		double[] v = randomVector(n);
+		double[] flatA = new double[n*n];
+		double[] flatB = new double[n*n];
+		double[] dst = new double[n*n];
+		double[] work = new double[n*n];
+		double[] vDst = new double[n];
+		FlatMatrixOps.fromArray(a, flatA);
+		FlatMatrixOps.fromArray(b, flatB);
+
+		FlatMatrixOps.mult(flatA, flatB, n, n, n, dst);
+		check("mult " + n, MatrixOps.matrixMult(a, b), dst);
+
+		FlatMatrixOps.multVector(flatA, v, n, n, vDst);
+		check("multVector " + n, MatrixOps.matrixMult(a, v), vDst);
+
+		FlatMatrixOps.vectorMult(v, flatA, n, n, vDst);
+		check("vectorMult " + n, MatrixOps.matrixMult(v, a), vDst);
+
+		FlatMatrixOps.transpose(flatA, n, n, dst);
+		check("transpose " + n, MatrixOps.matrixTranspose(a), dst);
+
+		System.arraycopy(flatA, 0, dst, 0, n*n);
+		FlatMatrixOps.transposeInPlace(dst, n);
+		check("transposeInPlace " + n, MatrixOps.matrixTranspose(a), dst);
+
+		FlatMatrixOps.add(flatA, flatB, n*n, dst);
+		check("add " + n, MatrixOps.matrixAddition(a, b), dst);
+
+		FlatMatrixOps.scale(flatA, -2.5, n*n, dst);
+		check("scale " + n, MatrixOps.matrixScalarMult(a, -2.5), dst);
+
+		FlatMatrixOps.subtract(flatA, flatB, n*n, dst);
+		check("subtract " + n, MatrixOps.matrixAddition(a, MatrixOps.matrixScalarMult(b, -1)), dst);
+
+		//the inverse is checked against MatrixOps for 2x2 matrices, and by a.inv(a) = I for the others.
+		FlatMatrixOps.inverse(flatA, n, dst, work);
+		if(n==2) {
+			check("inverse " + n, MatrixOps.matrix2dInverse(a), dst);
+		}
+		double[][] inv = new double[n][n];
+		FlatMatrixOps.toArray(dst, inv);
+		check("inverse identity " + n, identity(n), MatrixOps.matrixMult(a, inv));
+
+		//a.a' + I is symmetric positive definite, so has a Cholesky decomposition L with L.L' = a.a' + I.
+		double[][] spd = MatrixOps.matrixAddition(MatrixOps.matrixMult(a, MatrixOps.matrixTranspose(a)),
+				identity(n));
+		double[] flatSpd = new double[n*n];
+		FlatMatrixOps.fromArray(spd, flatSpd);
+		FlatMatrixOps.cholesky(flatSpd, n, dst);
+		double[][] l = new double[n][n];
+		FlatMatrixOps.toArray(dst, l);
+		check("cholesky " + n, spd, MatrixOps.matrixMult(l, MatrixOps.matrixTranspose(l)));
+
+		FlatMatrixOps.choleskySolve(dst, n, v, vDst);
+		check("choleskySolve " + n, v, MatrixOps.matrixMult(spd, vDst));
+	}
+
+	/**
+	 * Method to time 4x4 matrix multiplications with MatrixOps and FlatMatrixOps.
+	 */
+	private static void timeMult4() {
+
+		double[][] a = randomMatrix(4);
+		double[][] b = randomMatrix(4);
+		double[] flatA = new double[16];
+		double[] flatB = new double[16];
+		double[] dst = new double[16];
+		FlatMatrixOps.fromArray(a, flatA);
+		FlatMatrixOps.fromArray(b, flatB);
+
+		//run each twice, so that the second run is timed after the JIT compiler has warmed up.
+		double sink = 0;
+		long jaggedNanos = 0;
+		long flatNanos = 0;
+		for(int run=0; run<2; run++) {
+			long start = System.nanoTime();
+			for(int i=0; i<TIMING_ITERATIONS; i++) {
+				a[0][0] = i;
+				sink += MatrixOps.matrixMult(a, b)[3][3];
+			}
+			jaggedNanos = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for(int i=0; i<TIMING_ITERATIONS; i++) {
+				flatA[0] = i;
+				FlatMatrixOps.mult4(flatA, flatB, dst);
+				sink += dst[15];
+			}
+			flatNanos = System.nanoTime() - start;
+		}
+
+		System.out.println("4x4 multiply: MatrixOps = " + String.format("%.1f", jaggedNanos/(double) TIMING_ITERATIONS)
+				+ "ns, FlatMatrixOps = " + String.format("%.1f", flatNanos/(double) TIMING_ITERATIONS) + "ns ("
+				+ sink + ")");
+	}
+
+	private static void check(String name, double[][] expected, double[] actual) {
+		double[] flat = new double[expected.length * expected[0].length];
+		FlatMatrixOps.fromArray(expected, flat);
+		check(name, flat, actual);
+	}
+
+	private static void check(String name, double[][] expected, double[][] actual) {
+		double[] flat = new double[actual.length * actual[0].length];
+		FlatMatrixOps.fromArray(actual, flat);
+		check(name, expected, flat);
+	}
+
+	private static void check(String name, double[] expected, double[] actual) {
+		for(int i=0; i<expected.length; i++) {
+			if(Math.abs(expected[i] - actual[i]) > TOLERANCE * Math.max(1, Math.abs(expected[i]))) {
+				System.out.println(name + " failed at element " + i + ": expected " + expected[i] + ", got "
+						+ actual[i]);
+				failures++;
+				return;
+			}
+		}
+	}
+
+	private static double[][] randomMatrix(int n) {
+		double[][] m = new double[n][n];
+		for(int i=0; i<n; i++) {
+			for(int j=0; j<n; j++) {
+				m[i][j] = RANDOM.nextDouble()*2 - 1;
+			}
+		}
+		return m;
+	}
+
+	private static double[] randomVector(int n) {
+		double[] v = new double[n];
+		for(int i=0; i<n; i++) {
+			v[i] = RANDOM.nextDouble()*2 - 1;
+		}
+		return v;
+	}
+
+	private static double[][] identity(int n) {
+		double[][] m = new double[n][n];
+		for(int i=0; i<n; i++) {
+			m[i][i] = 1;
+		}
+		return m;
+	}
+
+}
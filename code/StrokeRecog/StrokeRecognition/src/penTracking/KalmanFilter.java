@@ -6,131 +6,250 @@ import strokeData.Coord;
  * Class for implementing a Kalman Filter that can be used to help with object tracking.
  * The filter implemented in the current version assumes a constant acceleration (may be advisable to amend
  * this to take a variable acceleration which better models the movement of a pen).
- * 
+ *
+ * The state is (x, y, x velocity, y velocity).  The model, process noise and measurement only ever link
+ * x with the x velocity and y with the y velocity, so the 4x4 error covariance is made up of two
+ * independent 2x2 blocks (one for each axis) and the other entries are always 0.  The filter therefore
+ * keeps just the two 2x2 blocks in fields and writes the matrix operations out as scalar arithmetic, so
+ * that predicting and measuring allocate nothing.  (The arithmetic gives exactly the same results as the
+ * full matrix operations in MatrixOps, with the state multiplied as a column vector, A*q, so that the
+ * predicted position moves with the velocity).
+ *
+ * The timestep given to the constructor is used for each prediction unless a different timestep is given
+ * (see kalmanFilterPredict(double, Coord)), e.g. when frames have been skipped or arrive irregularly.
+ *
  * @author Simon Dicken (Student ID: 1378818)
- * @version 2014-07-16
+ * @version 2014-08-06
  */
 public class KalmanFilter {
-	
-	private KalmanState ksPredict;	//the state representing the predicted position of the object.
-	private KalmanState ksCorrected;	//the state representing the actual position of the object.
+
 	private double timestep;	//the filter timestep.
 	private double acceln;		//the assumed constant acceleration.
 	private double accelNoiseMag; //variability in acceleration (stdev of acceleration)
-	
+
+	private static final double MEASURE_NOISE_X = 1.0;	//measurement noise in x direction.
+	private static final double MEASURE_NOISE_Y = 1.0;	//measurement noise in y direction.
+
+	//terms which depend only on the timestep and acceleration settings: the change in position and velocity
+	//due to the acceleration, and the position, position-velocity and velocity process noise.
+	private double accelPos;
+	private double accelVel;
+	private double noisePos;
+	private double noisePosVel;
+	private double noiseVel;
+
+	//the corrected state (the actual position of the object after the last measurement).
+	private double x, y, vx, vy;
+	//the corrected error covariance.  For each axis the 2x2 block is [pos-pos, pos-vel; vel-pos, vel-vel].
+	private double pxx, pxvx, pvxx, pvxvx;
+	private double pyy, pyvy, pvyy, pvyvy;
+
+	//the predicted state and error covariance (from the last prediction).
+	private boolean predicted;
+	private double predX, predY, predVx, predVy;
+	private double predPxx, predPxvx, predPvxx, predPvxvx;
+	private double predPyy, predPyvy, predPvyy, predPvyvy;
+
 	/**
 	 * Constructor for a KalmanFilter.
-	 * 
+	 *
 	 * @param initialPos - the starting position of the object.
 	 * @param timestep - the filter timestep.
 	 * @param acceln - the assumed constant acceleration.
 	 * @param accelNoiseMag	- the variability in the acceleration (stdev of acceleration).
 	 */
 	public KalmanFilter(Coord initialPos, double timestep, double acceln, double accelNoiseMag) {
-		
+
 		this.timestep = timestep;
 		this.acceln = acceln;
 		this.accelNoiseMag = accelNoiseMag;
-		
-		double[] initialState = {initialPos.getX(), initialPos.getY(), 0, 0};  	
-		
-	  	double subTerm1 = Math.pow(timestep, 4)/4;
-	  	double subTerm2 = Math.pow(timestep, 3)/2;
-	  	double subTerm3 = Math.pow(timestep, 2);
-	  	double[][] eX = {{subTerm1, 0, subTerm2, 0}, {0, subTerm1, 0, subTerm2}, 
-	  			{subTerm2, 0, subTerm3, 0}, {0, subTerm2, 0, subTerm3}};
-	  	eX = MatrixOps.matrixScalarMult(eX, Math.pow(accelNoiseMag, 2));
-	  	
-	  	ksCorrected = new KalmanState(initialState, eX);
+		calcModelTerms();
+
+		x = initialPos.getX();
+		y = initialPos.getY();
+		vx = 0;
+		vy = 0;
+
+		//the initial error covariance is the process noise.
+		pxx = pyy = noisePos;
+		pxvx = pvxx = pyvy = pvyy = noisePosVel;
+		pvxvx = pvyvy = noiseVel;
 	}
-	
-	
-	
+
+	/**
+	 * Method to calculate the terms of the model which only depend on the timestep and acceleration.
+	 *
+	 * B = [dt^2/2, dt^2/2, dt, dt] * acceln
+	 * eX = [dt^4/4, 0, dt^3/2, 0; 0, dt^4/4, 0, dt^3/2; dt^3/2, 0, dt^2, 0; 0, dt^3/2, 0, dt^2] * accelNoiseMag^2
+	 */
+	private void calcModelTerms() {
+		double subTerm1 = Math.pow(timestep, 4)/4;
+		double subTerm2 = Math.pow(timestep, 3)/2;
+		double subTerm3 = Math.pow(timestep, 2);
+		double noiseVar = Math.pow(accelNoiseMag, 2);
+
+		accelPos = (subTerm3/2) * acceln;
+		accelVel = timestep * acceln;
+		noisePos = subTerm1 * noiseVar;
+		noisePosVel = subTerm2 * noiseVar;
+		noiseVel = subTerm3 * noiseVar;
+	}
+
 	/**
 	 * Method to predict the next location of the object using the Kalman filter.
-	 * 
-	 * (loosely based on the Matlab code found here: 
+	 *
+	 * (loosely based on the Matlab code found here:
 	 * http://studentdavestutorials.weebly.com/kalman-filter-with-matlab-code.html)
-	 * 
+	 *
 	 * @return the predicted location of the object at the next timestep.
 	 */
 	public Coord kalmanFilterPredict() {
-		
-		
-		double[] qEst = new double[4];	//estimate of location
-		
-		double subTerm1 = Math.pow(timestep, 4)/4;
-		double subTerm2 = Math.pow(timestep, 3)/2;
-		double subTerm3 = Math.pow(timestep, 2);
-		
-		double[][] eX = {{subTerm1, 0, subTerm2, 0}, {0, subTerm1, 0, subTerm2}, 
-				{subTerm2, 0, subTerm3, 0}, {0, subTerm2, 0, subTerm3}};
-		eX = MatrixOps.matrixScalarMult(eX, Math.pow(accelNoiseMag, 2));
-		
-		double[][] p = new double[4][4];	//error covariance, p.
-		
-		double[][] a = {{1, 0, timestep, 0}, {0, 1, 0, timestep}, {0, 0, 1, 0}, {0, 0, 0, 1}};
-		double[][] aTrans = MatrixOps.matrixTranspose(a);
-		double[] b = {subTerm3/2, subTerm3/2, timestep, timestep};
-		
-		
-		//qEst(t) = A*q(t-1) + B*u;
-		qEst = MatrixOps.matrixMult(ksCorrected.getState(), a);
-		double[] bTemp = MatrixOps.matrixScalarMult(b, acceln);
-		qEst = MatrixOps.matrixAddition(qEst, bTemp);
-		
-		//P(t) = A*P(t-1)*A' + eX;
-		p = MatrixOps.matrixMult(a, ksCorrected.getP());
-		p = MatrixOps.matrixMult(p, aTrans);
-		p = MatrixOps.matrixAddition(p, eX);
-		
-		ksPredict = new KalmanState(qEst, p);
-		return new Coord((int) Math.round(qEst[0]), (int) Math.round(qEst[1]));
-		
+		Coord out = new Coord(0, 0);
+		kalmanFilterPredict(out);
+		return out;
+	}
+
+	/**
+	 * Method to predict the next location of the object using the Kalman filter, writing the location into
+	 * a Coord owned by the caller (so that nothing is allocated).
+	 *
+	 * @param out - the Coord to set to the predicted location of the object at the next timestep.
+	 */
+	public void kalmanFilterPredict(Coord out) {
+		kalmanFilterPredict(timestep, out);
+	}
+
+	/**
+	 * Method to predict the location of the object a given time after the last measurement.  The timestep
+	 * is kept for later predictions which do not give one.
+	 *
+	 * @param dt - the time since the last measurement (in the same units as the constructor's timestep).
+	 * @return the predicted location of the object.
+	 */
+	public Coord kalmanFilterPredict(double dt) {
+		Coord out = new Coord(0, 0);
+		kalmanFilterPredict(dt, out);
+		return out;
+	}
+
+	/**
+	 * Method to predict the location of the object a given time after the last measurement, writing the
+	 * location into a Coord owned by the caller.  Predicting more than once before a measurement is
+	 * allowed: each prediction starts from the last measurement, and the measurement is combined with the
+	 * most recent prediction.
+	 *
+	 * @param dt - the time since the last measurement (in the same units as the constructor's timestep).
+	 * @param out - the Coord to set to the predicted location of the object.
+	 */
+	public void kalmanFilterPredict(double dt, Coord out) {
+
+		if(dt!=timestep) {
+			timestep = dt;
+			calcModelTerms();
+		}
+
+		//qEst(t) = A*q(t-1) + B*u;  (for each axis, A = [1, dt; 0, 1])
+		predX = (x + vx*dt) + accelPos;
+		predY = (y + vy*dt) + accelPos;
+		predVx = vx + accelVel;
+		predVy = vy + accelVel;
+
+		//P(t) = A*P(t-1)*A' + eX;  (for each axis, A = [1, dt; 0, 1])
+		predPxx = ((pxx + dt*pvxx) + (pxvx + dt*pvxvx)*dt) + noisePos;
+		predPxvx = (pxvx + dt*pvxvx) + noisePosVel;
+		predPvxx = (pvxx + dt*pvxvx) + noisePosVel;
+		predPvxvx = pvxvx + noiseVel;
+
+		predPyy = ((pyy + dt*pvyy) + (pyvy + dt*pvyvy)*dt) + noisePos;
+		predPyvy = (pyvy + dt*pvyvy) + noisePosVel;
+		predPvyy = (pvyy + dt*pvyvy) + noisePosVel;
+		predPvyvy = pvyvy + noiseVel;
+
+		predicted = true;
+		out.setX((int) Math.round(predX));
+		out.setY((int) Math.round(predY));
 	}
-	
+
 	/**
 	 * Method to update the KalmanFilter with the actual measured location of the object.
-	 * 
+	 *
 	 * @param measurement - the obtained actual location of the object.
 	 */
 	public void kalmanFilterMeasure(Coord measurement) {
-		
-		double[] measure = {measurement.getX(), measurement.getY()};
-		
-		double measureNoiseX = 1.0;	//measurement noise in x direction.
-		double measureNoiseY = 1.0;	//measurement noise in y direction.
-		double[][] eZ = {{measureNoiseX, 0}, {0, measureNoiseY}}; //measurement covariance matrix.
-		
-		double[][] c = {{1, 0, 0, 0}, {0, 1, 0, 0}};
-		double[][] cTrans = MatrixOps.matrixTranspose(c);
-		
-		//K = pPredict*C' * inv(C*pPredict*C'+eZ);
-		double[][] subK1 = MatrixOps.matrixMult(ksPredict.getP(), cTrans);
-		double[][] subK2 = MatrixOps.matrixMult(c, ksPredict.getP());
-		subK2 = MatrixOps.matrixMult(subK2, cTrans);
-		subK2 = MatrixOps.matrixAddition(subK2, eZ);
-		subK2 = MatrixOps.matrix2dInverse(subK2);
-		double[][] k = MatrixOps.matrixMult(subK1, subK2);
-		
-		double[] q = new double[4];
+		kalmanFilterMeasure(measurement.getX(), measurement.getY());
+	}
+
+	/**
+	 * Method to update the KalmanFilter with the actual measured location of the object.
+	 *
+	 * @param measureX - the measured x location of the object.
+	 * @param measureY - the measured y location of the object.
+	 */
+	public void kalmanFilterMeasure(double measureX, double measureY) {
+
+		//K = pPredict*C' * inv(C*pPredict*C'+eZ);  (C*pPredict*C'+eZ is diagonal)
+		double sx = predPxx + MEASURE_NOISE_X;
+		double sy = predPyy + MEASURE_NOISE_Y;
+		double invDet = 1/(sx*sy);
+		double invSx = invDet * sy;
+		double invSy = invDet * sx;
+		double kx = predPxx * invSx;
+		double kvx = predPvxx * invSx;
+		double ky = predPyy * invSy;
+		double kvy = predPvyy * invSy;
+
 		//qEstCorrected = qEstPredict + K * (measurement - C * qEstPredict);
-		double[] temp1 = MatrixOps.matrixMult(c, ksPredict.getState());
-		temp1 = MatrixOps.matrixAddition(measure, MatrixOps.matrixScalarMult(temp1, -1));
-		temp1 = MatrixOps.matrixMult(k, temp1);
-		q = MatrixOps.matrixAddition(ksPredict.getState(), temp1);
-		
+		double innovX = measureX - predX;
+		double innovY = measureY - predY;
+		x = predX + kx*innovX;
+		vx = predVx + kvx*innovX;
+		y = predY + ky*innovY;
+		vy = predVy + kvy*innovY;
+
 		//pCorrected =  (eye(4)-K*C)*pPredict;
-		double[][] eye4 = {{1,0,0,0}, {0,1,0,0}, {0,0,1,0}, {0,0,0,1}};
-		double[][] p = new double[4][4];
-		double[][] temp2 = MatrixOps.matrixMult(k, c);
-		temp2 = MatrixOps.matrixScalarMult(temp2, -1);
-		temp2 = MatrixOps.matrixAddition(eye4, temp2);
-		p = MatrixOps.matrixMult(temp2, ksPredict.getP());
-		
-		ksCorrected = new KalmanState(q, p);
-		
+		pxx = (1 - kx) * predPxx;
+		pxvx = (1 - kx) * predPxvx;
+		pvxx = predPvxx - kvx*predPxx;
+		pvxvx = predPvxvx - kvx*predPxvx;
+
+		pyy = (1 - ky) * predPyy;
+		pyvy = (1 - ky) * predPyvy;
+		pvyy = predPvyy - kvy*predPyy;
+		pvyvy = predPvyvy - kvy*predPyvy;
+
+	}
+
+	/**
+	 * getter for the error covariance of the most recent prediction.
+	 *
+	 * @return the 4x4 error covariance of the predicted state (x, y, x velocity, y velocity), or null if no
+	 * prediction has been made yet.
+	 */
+	public double[][] getPredictedCovariance() {
+		if(!predicted) {
+			return null;
+		}
+		return new double[][] {{predPxx, 0, predPxvx, 0}, {0, predPyy, 0, predPyvy},
+				{predPvxx, 0, predPvxvx, 0}, {0, predPvyy, 0, predPvyvy}};
 	}
-	
+
+	/**
+	 * getter for the standard deviation of the x coordinate of the most recent prediction.
+	 *
+	 * @return the standard deviation of the predicted x location.
+	 */
+	public double getPredictedSigmaX() {
+		return Math.sqrt(predPxx);
+	}
+
+	/**
+	 * getter for the standard deviation of the y coordinate of the most recent prediction.
+	 *
+	 * @return the standard deviation of the predicted y location.
+	 */
+	public double getPredictedSigmaY() {
+		return Math.sqrt(predPyy);
+	}
+
 
 }
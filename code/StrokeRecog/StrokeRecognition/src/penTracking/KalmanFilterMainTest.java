@@ -0,0 +1,70 @@
+package penTracking;
+
+import strokeData.Coord;
+
+/**
+ * A short test class for the KalmanFilter class.  Feeds the filter a track moving at a constant velocity
+ * until it has learnt the velocity, then checks that the position is extrapolated correctly for timesteps
+ * of 1, 2 and 5 (as used when frames are skipped), in both directions.
+ *
+ * @author Simon Dicken (Student ID: 1378818)
+ * @version 2014-08-13
+ */
+public class KalmanFilterMainTest {
+
+	private static final int VELOCITY_X = 5;	//the velocity of the track in x (per timestep).
+	private static final int VELOCITY_Y = -3;	//the velocity of the track in y (per timestep).
+	private static final int WARMUP_STEPS = 200;	//the number of measurements before checking predictions.
+	private static final int[] TIMESTEPS = {1, 2, 5};
+	private static final int TOLERANCE = 1;	//the largest error allowed in a predicted coordinate.
+
+	private static int failures = 0;
+
+	public static void main(String[] args) {
+
+		//no acceleration is assumed, so the prediction should follow the velocity exactly.
+		KalmanFilter filter = new KalmanFilter(new Coord(0, 500), 1.0, 0, 1.5);
+		int x = 0;
+		int y = 500;
+		for(int i=1; i<=WARMUP_STEPS; i++) {
+			filter.kalmanFilterPredict(1.0);
+			x += VELOCITY_X;
+			y += VELOCITY_Y;
+			filter.kalmanFilterMeasure(x, y);
+		}
+
+		//each prediction starts from the last measurement, so they can be checked one after another.
+		for(int dt : TIMESTEPS) {
+			Coord predicted = filter.kalmanFilterPredict(dt);
+			check("dt = " + dt, x + VELOCITY_X*dt, y + VELOCITY_Y*dt, predicted);
+		}
+
+		//carry on along the track after a jump of 5 timesteps (i.e. 4 skipped frames).
+		x += 5*VELOCITY_X;
+		y += 5*VELOCITY_Y;
+		filter.kalmanFilterMeasure(x, y);
+		for(int dt : TIMESTEPS) {
+			Coord predicted = filter.kalmanFilterPredict(dt);
+			check("after skip, dt = " + dt, x + VELOCITY_X*dt, y + VELOCITY_Y*dt, predicted);
+		}
+
+		System.out.println("Prediction checks: " + failures + " failures.");
+	}
+
+	/**
+	 * Method to compare a prediction with the expected position, printing out any mismatch.
+	 *
+	 * @param name - the name of the check.
+	 * @param expectedX - the expected x position.
+	 * @param expectedY - the expected y position.
+	 * @param predicted - the predicted position.
+	 */
+	private static void check(String name, int expectedX, int expectedY, Coord predicted) {
+		if(Math.abs(predicted.getX()-expectedX)>TOLERANCE || Math.abs(predicted.getY()-expectedY)>TOLERANCE) {
+			failures++;
+			System.out.println(name + ": expected (" + expectedX + ", " + expectedY + "), predicted (" 
+					+ predicted.getX() + ", " + predicted.getY() + ")");
+		}
+	}
+
+}
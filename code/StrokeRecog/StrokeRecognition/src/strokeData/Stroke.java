@@ -11,6 +11,7 @@ public class Stroke {
 
 	private Coord location;	//the location of the pen ballpoint.
 	private boolean penDown;	//whether the pen writing (pen-down) or not (pen-up)
+	private int frameNum = -1;	//the number of the frame the ballpoint was found in (-1 if not known).
 	
 	/**
 	 * Constructor for Stroke objects.
@@ -24,6 +25,18 @@ public class Stroke {
 		this.penDown = penDown;
 	}
 	
+	/**
+	 * Constructor for Stroke objects which records the frame the ballpoint was found in.
+	 * 
+	 * @param location - the coordinates of the pen ballpoint.
+	 * @param penDown - whether the pen is writing or not (pen-down or pen-up).
+	 * @param frameNum - the number of the frame the ballpoint was found in.
+	 */
+	public Stroke(Coord location, boolean penDown, int frameNum) {
+		this(location, penDown);
+		this.frameNum = frameNum;
+	}
+	
 	/**
 	 * getter for location.
 	 * @return the ballpoint location for this Stroke.
@@ -56,5 +69,13 @@ public class Stroke {
 		this.penDown = penDown;
 	}
 	
+	/**
+	 * getter for frameNum.
+	 * @return the number of the frame the ballpoint was found in, or -1 if not known.
+	 */
+	public int getFrameNum() {
+		return frameNum;
+	}
+	
 	
 }
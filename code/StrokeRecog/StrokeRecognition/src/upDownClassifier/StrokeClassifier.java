@@ -4,11 +4,14 @@ import java.util.ArrayList;
 
 import org.opencv.core.Core;
 import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
 import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
 
 import strokeData.Coord;
 import strokeData.Stroke;
+import videoProcessing.DebugFrameSink;
+import videoProcessing.ImageWorkspace;
 import videoProcessing.ProcessImage;
 
 /**
@@ -22,6 +25,7 @@ import videoProcessing.ProcessImage;
 public class StrokeClassifier {
 
 	private ArrayList<Stroke> strokeRecord;	//the collection of all the pen-strokes in sequence.
+	private DebugFrameSink debugSink;	//where to send the ink trace images (null for no debug output).
 	
 	private static final int SEARCH_SIZE = 5;	//the area to search for ink traces (the search are will have
 												//dimensions of 2*STROKE_SIZE by 2*STROKE_SIZE)
@@ -50,6 +54,10 @@ public class StrokeClassifier {
 	 */
 	public void analyseRecord(Mat src) {
 		
+		ImageWorkspace ws = ImageWorkspace.get();
+		Mat result = ws.getMat("StrokeClassifier.result");
+		Size blurSize = ws.getSquareSize(9);
+		
 		for(int i=0; i<strokeRecord.size(); i++) {
 			Stroke strk = strokeRecord.get(i);
 			
@@ -59,19 +67,23 @@ public class StrokeClassifier {
 			int rowStart = (strk.getLocation().getY()-SEARCH_SIZE>0) ? strk.getLocation().getY()-SEARCH_SIZE : 0;
 			int rowEnd = (strk.getLocation().getY()+SEARCH_SIZE<src.rows()) ? strk.getLocation().getY()+SEARCH_SIZE : src.rows();			
 			Mat roi = src.submat(rowStart, rowEnd, colStart, colEnd);
-//			Highgui.imwrite("C:\\Users\\Simon\\Desktop\\frames7\\inkroi-" + i + ".jpg", roi);
+			if(debugSink!=null) {
+				debugSink.offer("inkroi-" + i, roi, false);
+			}
 			
 			//convert the image to gray and Gaussian blur, then threshold it.
-			Mat result = new Mat();
-			Imgproc.cvtColor(roi, result, Imgproc.COLOR_BGR2GRAY);
-			Imgproc.GaussianBlur(result, result, new Size(9,9), 0);
+			ProcessImage.convertToGray(roi, result);
+			Imgproc.GaussianBlur(result, result, blurSize, 0);
 			Imgproc.adaptiveThreshold(result, result, 1, Imgproc.ADAPTIVE_THRESH_GAUSSIAN_C, Imgproc.THRESH_BINARY, 7, 0);
-//			Highgui.imwrite("C:\\Users\\Simon\\Desktop\\frames7\\inkroithresh-" + i + ".jpg", result);
+			if(debugSink!=null) {
+				debugSink.offer("inkroithresh-" + i, result, false);
+			}
 			
 			//find how many pixels remain on after processing.
 			int sum = 0;
+			Scalar sumAll = Core.sumElems(result);
 			for(int j=0; j<3; j++) {
-				sum += Core.sumElems(result).val[j];
+				sum += sumAll.val[j];
 			}
 			
 			//if the threshold is exceeded, it is assumed an ink trace is present and penDown is true.
@@ -129,6 +141,16 @@ public class StrokeClassifier {
 	}
 	
 	
+	/**
+	 * setter for the sink that the area examined around each stroke, and the thresholded version of it, 
+	 * are sent to.
+	 * 
+	 * @param debugSink - the sink to use (null to turn debug output off).
+	 */
+	public void setDebugSink(DebugFrameSink debugSink) {
+		this.debugSink = debugSink;
+	}
+	
 	public void addStroke(Stroke s) {
 		strokeRecord.add(s);
 	}
@@ -0,0 +1,176 @@
+package videoProcessing;
+
+import java.io.File;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opencv.core.Mat;
+import org.opencv.highgui.Highgui;
+
+/**
+ * DebugFrameSink which writes a sample of the images offered to it to jpg files in a directory.  The 
+ * images are copied into a bounded queue and written by a background thread, so the processing threads 
+ * never wait for an image to be encoded or written.  If the queue is full the image is dropped.
+ * 
+ * Every image marked as an anomaly is written (space permitting), as is every Nth of the other images 
+ * (see the constructor).
+ * 
+ * Once the writer has been closed, any images offered are ignored.
+ * 
+ * @author Simon Dicken (Student ID: 1378818)
+ * @version 2014-08-13
+ */
+public class AsyncImageWriter implements DebugFrameSink {
+	
+	//marker entry used to tell the writer thread to stop.
+	private static final Entry STOP = new Entry(null, null);
+	//the longest close() waits for room in the queue for the stop marker before giving up on the writer.
+	private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+	
+	private final File directory;	//the directory the images are written to.
+	private final int sampleInterval;	//write every sampleInterval-th image offered (0 for anomalies only).
+	private final BlockingQueue<Entry> queue;	//the images waiting to be written.
+	private final Thread writer;	//the thread writing the images.
+	private volatile boolean closed;	//set once close() has been called.
+	
+	private final AtomicLong offered = new AtomicLong();	//the number of (non-anomaly) images offered.
+	private final AtomicLong written = new AtomicLong();	//the number of images written.
+	private final AtomicLong dropped = new AtomicLong();	//the number of sampled images dropped.
+	
+	/**
+	 * Constructor for AsyncImageWriter.  Starts the writer thread.
+	 * 
+	 * @param directory - the directory to write the images to (created if it does not exist).
+	 * @param sampleInterval - write every sampleInterval-th image offered, e.g. 1 for all images or 10 for 
+	 * every 10th image (0 to write only anomalies).
+	 * @param queueSize - the number of images that can be waiting to be written.
+	 */
+	public AsyncImageWriter(File directory, int sampleInterval, int queueSize) {
+		if(sampleInterval<0 || queueSize<1) {
+			throw new IllegalArgumentException("Invalid debug writer settings.");
+		}
+		this.directory = directory;
+		this.sampleInterval = sampleInterval;
+		directory.mkdirs();
+		queue = new ArrayBlockingQueue<Entry>(queueSize);
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeImages();
+			}
+		}, "debug-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+	
+	@Override
+	public void offer(String name, Mat img, boolean anomaly) {
+		if(closed) {
+			return;
+		}
+		if(!anomaly) {
+			long n = offered.getAndIncrement();
+			if(sampleInterval==0 || n % sampleInterval != 0) {
+				return;
+			}
+		}
+		//check for space first so that the copy is not made just to be dropped.
+		if(queue.remainingCapacity()==0) {
+			dropped.incrementAndGet();
+			return;
+		}
+		Mat copy = img.clone();
+		Entry entry = new Entry(name, copy);
+		if(!queue.offer(entry)) {
+			copy.release();
+			dropped.incrementAndGet();
+		} else if(closed && queue.remove(entry)) {
+			//closed while the image was being queued, so it may be behind the stop marker and never written.
+			copy.release();
+		}
+	}
+	
+	/**
+	 * Method run by the writer thread.  Writes images from the queue until told to stop.
+	 */
+	private void writeImages() {
+		try {
+			while(true) {
+				Entry e = queue.take();
+				if(e==STOP) {
+					return;
+				}
+				Highgui.imwrite(new File(directory, e.name + ".jpg").getPath(), e.img);
+				e.img.release();
+				written.incrementAndGet();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			//free any images that will not be written (e.g. if writing failed).
+			releaseQueued();
+		}
+	}
+	
+	/**
+	 * Method to empty the queue, freeing the images in it without writing them.
+	 */
+	private void releaseQueued() {
+		Entry e;
+		while((e = queue.poll())!=null) {
+			if(e!=STOP) {
+				e.img.release();
+			}
+		}
+	}
+	
+	/**
+	 * Method to stop the writer thread once the images already queued have been written.  If the queue 
+	 * stays full (e.g. because the writer thread has died), the writer is stopped without writing the rest.
+	 * 
+	 * @throws InterruptedException - if interrupted while waiting for the writer to finish.
+	 */
+	public void close() throws InterruptedException {
+		if(closed) {
+			return;
+		}
+		closed = true;
+		if(!writer.isAlive() || !queue.offer(STOP, CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+			writer.interrupt();
+		}
+		writer.join();
+		releaseQueued();
+	}
+	
+	/**
+	 * getter for the number of images written so far.
+	 * @return the number of images written.
+	 */
+	public long getWritten() {
+		return written.get();
+	}
+	
+	/**
+	 * getter for the number of images that were sampled but dropped because the queue was full.
+	 * @return the number of images dropped.
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+	
+	/**
+	 * An image waiting to be written.
+	 */
+	private static class Entry {
+		private final String name;
+		private final Mat img;
+		
+		private Entry(String name, Mat img) {
+			this.name = name;
+			this.img = img;
+		}
+	}
+
+}
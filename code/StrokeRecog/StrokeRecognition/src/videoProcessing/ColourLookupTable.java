@@ -0,0 +1,163 @@
+package videoProcessing;
+
+import java.util.HashMap;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+
+/**
+ * Class which precomputes, for every possible 24-bit BGR colour, whether the colour falls within a range of
+ * HSV values.  This allows a BGR image to be filtered into a binary mask in a single pass over its bytes,
+ * rather than converting the whole image to HSV and then thresholding it (see ProcessImage.filterColour()).
+ *
+ * The table is packed as one bit per colour (2^24 bits, i.e. 2MB).  Building a table takes a noticeable
+ * amount of time, so the tables are cached and shared for each (low, high) range (see forRange()).
+ *
+ * The HSV conversion follows the fixed-point arithmetic OpenCV uses for 8-bit images, so the mask produced
+ * is identical to that from cvtColor(COLOR_BGR2HSV) followed by inRange.
+ *
+ * @author Simon Dicken (Student ID: 1378818)
+ * @version 2014-07-29
+ */
+public class ColourLookupTable {
+
+	//the tables built so far, keyed by their HSV range.
+	private static final HashMap<String, ColourLookupTable> TABLES = new HashMap<String, ColourLookupTable>();
+
+	//constants used by OpenCV for the fixed-point 8-bit BGR to HSV conversion.
+	private static final int HSV_SHIFT = 12;
+	private static final int HUE_RANGE = 180;
+	private static final int[] S_DIV_TABLE = new int[256];
+	private static final int[] H_DIV_TABLE = new int[256];
+	static {
+		for(int i=1; i<256; i++) {
+			S_DIV_TABLE[i] = (int) Math.rint((255 << HSV_SHIFT) / (1.0*i));
+			H_DIV_TABLE[i] = (int) Math.rint((HUE_RANGE << HSV_SHIFT) / (6.0*i));
+		}
+	}
+
+	private final long[] bits = new long[1 << 18];	//one bit per BGR colour, set if the colour is in range.
+
+	/**
+	 * Method to get the lookup table for the specified HSV range.  The table is built the first time a
+	 * range is asked for and shared from then on.
+	 *
+	 * @param low - Scalar of HSV values representing the low threshold.
+	 * @param high - Scalar of HSV values representing the high threshold.
+	 * @return the lookup table for the range.
+	 */
+	public static synchronized ColourLookupTable forRange(Scalar low, Scalar high) {
+		String key = low.val[0] + "," + low.val[1] + "," + low.val[2] + "-" + high.val[0] + "," + high.val[1]
+				+ "," + high.val[2];
+		ColourLookupTable table = TABLES.get(key);
+		if(table==null) {
+			table = new ColourLookupTable(low, high);
+			TABLES.put(key, table);
+		}
+		return table;
+	}
+
+	/**
+	 * Constructor for ColourLookupTable.  Builds the table by converting every BGR colour to HSV and
+	 * checking it against the range.
+	 *
+	 * @param low - Scalar of HSV values representing the low threshold.
+	 * @param high - Scalar of HSV values representing the high threshold.
+	 */
+	private ColourLookupTable(Scalar low, Scalar high) {
+
+		//inRange compares 8-bit images against the bounds rounded to the nearest 8-bit value.
+		int lowH = toByteRange(low.val[0]), lowS = toByteRange(low.val[1]), lowV = toByteRange(low.val[2]);
+		int highH = toByteRange(high.val[0]), highS = toByteRange(high.val[1]), highV = toByteRange(high.val[2]);
+
+		for(int b=0; b<256; b++) {
+			for(int g=0; g<256; g++) {
+				for(int r=0; r<256; r++) {
+
+					int v = Math.max(b, Math.max(g, r));
+					if(v<lowV || v>highV) {
+						continue;
+					}
+					int diff = v - Math.min(b, Math.min(g, r));
+					int s = (diff * S_DIV_TABLE[v] + (1 << (HSV_SHIFT-1))) >> HSV_SHIFT;
+					if(s<lowS || s>highS) {
+						continue;
+					}
+					int h;
+					if(v==r) {
+						h = g - b;
+					} else if(v==g) {
+						h = b - r + 2*diff;
+					} else {
+						h = r - g + 4*diff;
+					}
+					h = (h * H_DIV_TABLE[diff] + (1 << (HSV_SHIFT-1))) >> HSV_SHIFT;
+					if(h<0) {
+						h += HUE_RANGE;
+					}
+					if(h>=lowH && h<=highH) {
+						int index = (b << 16) | (g << 8) | r;
+						bits[index >>> 6] |= 1L << index;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Method to round a threshold value to the nearest value representable in an 8-bit image.
+	 *
+	 * @param val - the threshold value.
+	 * @return the value rounded and clamped to the range 0-255.
+	 */
+	private static int toByteRange(double val) {
+		return (int) Math.max(0, Math.min(255, Math.rint(val)));
+	}
+
+	/**
+	 * Method to check whether a colour is within the table's HSV range.
+	 *
+	 * @param b - the blue component (0-255).
+	 * @param g - the green component (0-255).
+	 * @param r - the red component (0-255).
+	 * @return true if the colour is within the range.
+	 */
+	public boolean contains(int b, int g, int r) {
+		int index = (b << 16) | (g << 8) | r;
+		return (bits[index >>> 6] & (1L << index)) != 0;
+	}
+
+	/**
+	 * Method to filter a BGR image through the table.  Pixels whose colour is within the range are set to
+	 * 255, all other pixels are 0.
+	 *
+	 * @param src - input image in BGR format (8-bit, 3 channels).
+	 * @param dst - the Mat to write the single-channel filtered image into (must not be src).
+	 */
+	public void filter(Mat src, Mat dst) {
+
+		ImageWorkspace ws = ImageWorkspace.get();
+
+		//a region of interest is not stored contiguously, so copy it out first to allow one bulk read.
+		if(!src.isContinuous()) {
+			Mat continuous = ws.getMat("ColourLookupTable.continuous");
+			src.copyTo(continuous);
+			src = continuous;
+		}
+
+		int pixels = src.rows() * src.cols();
+		byte[] bgr = ws.getBytes("ColourLookupTable.bgr", pixels*3);
+		byte[] mask = ws.getBytes("ColourLookupTable.mask", pixels);
+		src.get(0, 0, bgr);
+
+		for(int i=0, j=0; i<pixels; i++, j+=3) {
+			int index = ((bgr[j] & 0xFF) << 16) | ((bgr[j+1] & 0xFF) << 8) | (bgr[j+2] & 0xFF);
+			mask[i] = ((bits[index >>> 6] & (1L << index)) != 0) ? (byte) 255 : 0;
+		}
+
+		dst.create(src.rows(), src.cols(), CvType.CV_8UC1);
+		dst.put(0, 0, mask);
+	}
+
+}
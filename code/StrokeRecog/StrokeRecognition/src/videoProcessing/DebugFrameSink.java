@@ -0,0 +1,27 @@
+package videoProcessing;
+
+import org.opencv.core.Mat;
+
+/**
+ * Interface for something that takes intermediate images from the processing stages for debugging (e.g. 
+ * writing them to disk).  Debug output is off unless a sink is given to the objects producing the images
+ * (see ProcessVideo.setDebugSink()).
+ * 
+ * Implementations are called from the processing threads, so should return quickly and must copy the 
+ * image if they need it after returning.
+ * 
+ * @author Simon Dicken (Student ID: 1378818)
+ * @version 2014-08-02
+ */
+public interface DebugFrameSink {
+	
+	/**
+	 * Method to offer an image to the sink.  The sink may choose not to keep it.
+	 * 
+	 * @param name - a name for the image, unique within the run (e.g. "ballpoint-12").
+	 * @param img - the image.
+	 * @param anomaly - true if the image shows something unusual (e.g. a failed detection).
+	 */
+	public void offer(String name, Mat img, boolean anomaly);
+
+}
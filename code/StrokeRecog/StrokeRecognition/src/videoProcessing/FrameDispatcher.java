@@ -0,0 +1,140 @@
+package videoProcessing;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Class to deliver FrameSnapshots to the FrameListeners of a ProcessVideo object on a separate thread.
+ * Only one snapshot is ever waiting to be delivered: a newer one replaces it, so a slow listener always
+ * gets the newest frame.  The processing thread asks wantsSnapshot() before taking a snapshot, so no copies
+ * are made while there are no listeners, the listeners are still busy or the maximum rate would be
+ * exceeded.
+ *
+ * The listener thread is started when the first snapshot is published and stops after delivering the
+ * final snapshot of a run.
+ *
+ * @author Simon Dicken (Student ID: 1378818)
+ * @version 2014-08-11
+ */
+class FrameDispatcher {
+
+	private final List<FrameListener> listeners = new CopyOnWriteArrayList<FrameListener>();
+	private volatile long minIntervalNanos;	//the shortest time between two deliveries.
+
+	//the state below is only used while holding the dispatcher's lock.
+	private FrameSnapshot pending;	//the snapshot waiting to be delivered (null if none).
+	private boolean busy;	//whether the listeners are being called.
+	private boolean running;	//whether the listener thread is running.
+	private long lastPublished;	//the time (nanoseconds) the last snapshot was published.
+
+	/**
+	 * Constructor for FrameDispatcher.
+	 *
+	 * @param maxRate - the most snapshots to deliver per second.
+	 */
+	FrameDispatcher(double maxRate) {
+		setMaxRate(maxRate);
+	}
+
+	/**
+	 * Method to set the most snapshots to deliver per second.
+	 *
+	 * @param maxRate - the maximum rate (must be more than 0).
+	 */
+	void setMaxRate(double maxRate) {
+		if(maxRate<=0) {
+			throw new IllegalArgumentException("The listener rate must be more than 0.");
+		}
+		minIntervalNanos = (long) (1e9 / maxRate);
+	}
+
+	void addListener(FrameListener l) {
+		listeners.add(l);
+	}
+
+	void removeListener(FrameListener l) {
+		listeners.remove(l);
+	}
+
+	/**
+	 * Method to check whether a snapshot of the current frame should be published.
+	 *
+	 * @param last - true for the final frame of a run, which is always wanted if there are any listeners.
+	 * @return true if a snapshot should be taken and passed to publish().
+	 */
+	synchronized boolean wantsSnapshot(boolean last) {
+		if(listeners.isEmpty()) {
+			return false;
+		}
+		if(last) {
+			return true;
+		}
+		return !busy && pending==null && System.nanoTime() - lastPublished >= minIntervalNanos;
+	}
+
+	/**
+	 * Method to publish a snapshot for delivery, replacing any snapshot still waiting.
+	 *
+	 * @param snapshot - the snapshot.
+	 */
+	synchronized void publish(FrameSnapshot snapshot) {
+		if(pending!=null) {
+			pending.release();
+		}
+		pending = snapshot;
+		lastPublished = System.nanoTime();
+		if(!running) {
+			running = true;
+			Thread t = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					deliver();
+				}
+			}, "frame-listeners");
+			t.setDaemon(true);
+			t.start();
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Method run by the listener thread.  Delivers each snapshot to every listener until the final one has
+	 * been delivered.
+	 */
+	private void deliver() {
+		boolean more = true;
+		while(more) {
+			FrameSnapshot s;
+			synchronized(this) {
+				while(pending==null) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						running = false;
+						return;
+					}
+				}
+				s = pending;
+				pending = null;
+				busy = true;
+			}
+			for(FrameListener l : listeners) {
+				try {
+					l.frameProcessed(s);
+				} catch (RuntimeException e) {
+					//a failing listener must not stop the others being updated.
+					e.printStackTrace();
+				}
+			}
+			s.release();
+			synchronized(this) {
+				busy = false;
+				if(s.isLast() && pending==null) {
+					running = false;
+					more = false;
+				}
+			}
+		}
+	}
+
+}
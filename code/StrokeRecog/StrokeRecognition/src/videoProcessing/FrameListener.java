@@ -0,0 +1,26 @@
+package videoProcessing;
+
+/**
+ * Interface for something that wants to be told about the progress of a ProcessVideo object (e.g. the GUI).
+ * Listeners are registered with ProcessVideo.addFrameListener().  If no listener is registered, no
+ * snapshots are taken and no listener thread is started.
+ *
+ * Listeners are called on a separate listener thread, never on the processing thread, and at no more than
+ * the rate set with ProcessVideo.setListenerRate().  A listener which takes longer than the time between
+ * frames does not hold up the processing: the frames processed in the meantime are skipped, and the
+ * listener is next given the newest frame.  The final frame of the run is always delivered.
+ *
+ * @author Simon Dicken (Student ID: 1378818)
+ * @version 2014-08-11
+ */
+public interface FrameListener {
+
+	/**
+	 * Method called with a snapshot of the most recently processed frame.  The snapshot's images are
+	 * released once every listener has returned, so they must be copied if they are needed afterwards.
+	 *
+	 * @param snapshot - the snapshot of the frame.
+	 */
+	public void frameProcessed(FrameSnapshot snapshot);
+
+}
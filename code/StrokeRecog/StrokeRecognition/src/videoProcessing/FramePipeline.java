@@ -0,0 +1,240 @@
+package videoProcessing;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.opencv.core.Mat;
+
+/**
+ * Class to run the per-frame work of a ProcessVideo object as a pipeline of three stages, each on its own
+ * thread and connected by bounded queues:
+ * 	-	decode - reads the frames from the video input.
+ * 	-	track - colour filtering, template matching and the Kalman filter update.
+ * 	-	ballpoint - ballpoint extraction, recording the strokes and updating the listeners.
+ *
+ * Each stage handles the frames strictly in order, so the Kalman filter and the StrokeClassifier see the
+ * frames in the same order as in the single-threaded loop.  The ballpoint stage runs on the calling thread,
+ * so the frames are still completed on the thread that called startProcessing().
+ *
+ * @author Simon Dicken (Student ID: 1378818)
+ * @version 2014-07-24
+ */
+class FramePipeline {
+
+	private final ProcessVideo pv;	//the video whose frames are being processed.
+	private final BlockingQueue<FrameRecord> decoded;	//frames waiting to be tracked.
+	private final BlockingQueue<FrameRecord> tracked;	//frames waiting for the ballpoint to be located.
+	private final StageStats decodeStats = new StageStats("decode");
+	private final StageStats trackStats = new StageStats("track");
+	private final StageStats ballpointStats = new StageStats("ballpoint");
+	private volatile Throwable failure;	//the first error thrown by one of the stage threads.
+
+	/**
+	 * Constructor for FramePipeline.
+	 *
+	 * @param pv - the video whose frames are to be processed.
+	 * @param queueSize - the number of frames that can be waiting between any two stages.
+	 */
+	FramePipeline(ProcessVideo pv, int queueSize) {
+		this.pv = pv;
+		decoded = new ArrayBlockingQueue<FrameRecord>(queueSize);
+		tracked = new ArrayBlockingQueue<FrameRecord>(queueSize);
+	}
+
+	/**
+	 * Method to process all remaining frames of the video.  Returns once the last frame has passed through
+	 * every stage.
+	 *
+	 * @throws RuntimeException - if any of the stages failed.
+	 */
+	void run() {
+
+		Thread decodeThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				decodeStage();
+			}
+		}, "pipeline-decode");
+		Thread trackThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				trackStage();
+			}
+		}, "pipeline-track");
+		decodeThread.setDaemon(true);
+		trackThread.setDaemon(true);
+		decodeThread.start();
+		trackThread.start();
+
+		try {
+			ballpointStage();
+		} finally {
+			//if this stage finished early, make sure the other stages are not left blocked on a full queue.
+			//An interrupt does not stop a stage in the middle of reading or tracking a frame, so wait for 
+			//them to finish before the caller can close the input.
+			decodeThread.interrupt();
+			trackThread.interrupt();
+			joinUninterruptibly(decodeThread);
+			joinUninterruptibly(trackThread);
+			//hand back the frames of any records left in the queues.
+			discardQueued(decoded);
+			discardQueued(tracked);
+		}
+
+		if(failure!=null) {
+			throw new RuntimeException("Pipelined processing failed.", failure);
+		}
+	}
+
+	/**
+	 * Method to wait for a thread to finish, even if the calling thread is interrupted while waiting (in 
+	 * which case its interrupt status is restored afterwards).
+	 *
+	 * @param t - the thread to wait for.
+	 */
+	private static void joinUninterruptibly(Thread t) {
+		boolean interrupted = false;
+		while(true) {
+			try {
+				t.join();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if(interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Method to empty a queue of records which will not be processed, handing their frames back to the
+	 * input so that pooled frame buffers can be reused.
+	 *
+	 * @param queue - the queue to empty.
+	 */
+	private void discardQueued(BlockingQueue<FrameRecord> queue) {
+		FrameRecord rec;
+		while((rec = queue.poll())!=null) {
+			if(rec!=FrameRecord.END_OF_STREAM) {
+				pv.releaseFrame(rec.getImg());
+			}
+		}
+	}
+
+	/**
+	 * The decode stage: reads frames from the input until there are none left.
+	 */
+	private void decodeStage() {
+		try {
+			while(failure==null && pv.frameAvailable()) {
+				long start = System.nanoTime();
+				FrameRecord rec = pv.nextFrame();
+				long decodedAt = System.nanoTime();
+				decodeStats.recordFrame(decodedAt - start);
+				decoded.put(rec);
+				decodeStats.recordWait(System.nanoTime() - decodedAt);
+			}
+			decoded.put(FrameRecord.END_OF_STREAM);
+		} catch (InterruptedException e) {
+			//processing has been abandoned.
+		} catch (Throwable t) {
+			fail(t, decoded);
+		}
+	}
+
+	/**
+	 * The track stage: finds the template in each frame and updates the filter.
+	 */
+	private void trackStage() {
+		try {
+			while(true) {
+				long waitStart = System.nanoTime();
+				FrameRecord rec = decoded.take();
+				if(rec==FrameRecord.END_OF_STREAM) {
+					tracked.put(rec);
+					return;
+				}
+				long start = System.nanoTime();
+				pv.trackFrame(rec);
+				long end = System.nanoTime();
+				trackStats.recordFrame(end - start);
+				tracked.put(rec);
+				trackStats.recordWait((start - waitStart) + (System.nanoTime() - end));
+			}
+		} catch (InterruptedException e) {
+			//processing has been abandoned.
+		} catch (Throwable t) {
+			fail(t, tracked);
+		}
+	}
+
+	/**
+	 * The ballpoint stage: finds the ballpoint in each tracked frame, records it and reports the frame.
+	 *
+	 * @throws RuntimeException - if the thread is interrupted while waiting for a frame.
+	 */
+	private void ballpointStage() {
+		try {
+			while(true) {
+				long waitStart = System.nanoTime();
+				FrameRecord rec = tracked.take();
+				if(rec==FrameRecord.END_OF_STREAM) {
+					return;
+				}
+				long start = System.nanoTime();
+				pv.locateBallpoint(rec);
+				pv.completeFrame(rec);
+				ballpointStats.recordFrame(System.nanoTime() - start);
+				ballpointStats.recordWait(start - waitStart);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for frames.", e);
+		}
+	}
+
+	/**
+	 * Method to record the failure of a stage and tell the downstream stages to stop.
+	 *
+	 * @param t - the error thrown by the stage.
+	 * @param downstream - the queue feeding the next stage.
+	 */
+	private void fail(Throwable t, BlockingQueue<FrameRecord> downstream) {
+		if(failure==null) {
+			failure = t;
+		}
+		//make room for the end marker if necessary - the remaining frames will not be processed anyway.
+		discardQueued(downstream);
+		downstream.offer(FrameRecord.END_OF_STREAM);
+	}
+
+	/**
+	 * Method to print out the throughput of each stage.  The stage with the lowest throughput is the one
+	 * limiting the pipeline.  Stages which timed no frames (e.g. because the input had only one frame) have
+	 * no throughput, so are not considered.
+	 */
+	void printStageSummary() {
+		StageStats bottleneck = null;
+		System.out.println("Pipeline stage throughput:");
+		for(StageStats s : getStageStats()) {
+			System.out.println("  " + s);
+			if(s.getBusyNanos()>0 && (bottleneck==null || s.getThroughput() < bottleneck.getThroughput())) {
+				bottleneck = s;
+			}
+		}
+		if(bottleneck!=null) {
+			System.out.println("Bottleneck stage: " + bottleneck.getName());
+		}
+	}
+
+	/**
+	 * getter for the stage statistics.
+	 *
+	 * @return the statistics for the decode, track and ballpoint stages in that order.
+	 */
+	StageStats[] getStageStats() {
+		return new StageStats[] {decodeStats, trackStats, ballpointStats};
+	}
+
+}
@@ -0,0 +1,246 @@
+package videoProcessing;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opencv.core.Mat;
+
+/**
+ * Class to decode frames ahead of the processing on background threads.  The frames are decoded into a
+ * fixed pool of Mat buffers which are handed out in frame order by take(), and must be handed back with
+ * release() once the frame is finished with so that the buffer can be reused for a later frame.  No more
+ * than 'depth' frames are ever decoded ahead, so the memory used is bounded.  (A decoder which cannot write
+ * into an existing Mat may replace a buffer with the Mat it decoded instead - see FrameDecoder.decode().)
+ *
+ * ProcessVideo keeps the previous frame until the next one has been completed, so at least MIN_DEPTH 
+ * buffers are needed for the next frame to be decoded while the previous one is still held.  Pipelined 
+ * processing holds up to 2*queueSize+4 frames at once (the two queues, one frame in each stage and the 
+ * previous frame) and only keeps every stage busy with that many buffers, though it will not stall with 
+ * fewer.
+ *
+ * If the decoder reports that a frame does not exist (e.g. a video file is shorter than its reported frame
+ * count), the input ends at the frame before it: see hasNext().
+ *
+ * If more than one decoding thread is used, the decoder must be able to decode any frame independently
+ * of the others (e.g. a collection of jpg files).  Sequential decoders (e.g. a video file) must use a
+ * single thread, in which case the frames are decoded in order.
+ *
+ * @author Simon Dicken (Student ID: 1378818)
+ * @version 2014-08-13
+ */
+class FramePrefetcher {
+
+	/**
+	 * Interface for the objects that do the actual decoding of a frame.
+	 */
+	interface FrameDecoder {
+
+		/**
+		 * Method to decode a single frame, into the supplied buffer where the decoder can.  Decoders which 
+		 * can only produce a new Mat (e.g. Highgui.imread() in OpenCV 2.4) return that instead, and it 
+		 * takes the buffer's place in the pool, so the frame is not copied.  The number of frames held is
+		 * still bounded by the pool size.
+		 *
+		 * @param frameNum - the number of the frame to decode.
+		 * @param dst - the buffer to decode the frame into.
+		 * @return the Mat holding the frame (dst, or a new Mat replacing it), or null if there is no such
+		 * frame (the input has ended).
+		 */
+		Mat decode(int frameNum, Mat dst);
+	}
+
+	private final FrameDecoder decoder;	//the object used to decode each frame.
+	private final int firstFrame;	//the number of the first frame to decode.
+	private volatile int lastFrame;	//the number of the final frame to decode (lowered if the input ends early).
+	private final BlockingQueue<Mat> freeBuffers;	//the pool of buffers not currently holding a frame.
+	private final Mat[] decoded;	//frames that have been decoded but not yet taken, indexed by frame number.
+	private final AtomicInteger nextToDecode;	//the number of the next frame to be claimed by a decoding thread.
+	private int nextToTake;	//the number of the next frame to hand out.
+	private final Thread[] workers;	//the decoding threads.
+	private volatile RuntimeException failure;	//the first error thrown by a decoding thread.
+	private volatile boolean stopped;	//set once stop() has been called.
+
+	public static final int MIN_DEPTH = 2;	//the smallest number of buffers that can be used.
+	//the longest take() waits for a frame before giving up (far longer than any frame takes to decode).
+	private static final long TAKE_TIMEOUT_MILLIS = 30000;
+
+	/**
+	 * Constructor for FramePrefetcher.  The decoding threads are started immediately.
+	 *
+	 * @param decoder - the object used to decode each frame.
+	 * @param firstFrame - the number of the first frame to decode.
+	 * @param lastFrame - the number of the final frame to decode.
+	 * @param depth - the number of buffers in the pool (i.e. the maximum number of frames decoded ahead).
+	 * Must be at least MIN_DEPTH.
+	 * @param threads - the number of decoding threads.
+	 */
+	FramePrefetcher(FrameDecoder decoder, int firstFrame, int lastFrame, int depth, int threads) {
+
+		if(depth<MIN_DEPTH || threads<1) {
+			throw new IllegalArgumentException("Prefetch depth must be at least " + MIN_DEPTH 
+					+ " and thread count at least 1.");
+		}
+
+		this.decoder = decoder;
+		this.firstFrame = firstFrame;
+		this.lastFrame = lastFrame;
+		freeBuffers = new ArrayBlockingQueue<Mat>(depth);
+		for(int i=0; i<depth; i++) {
+			freeBuffers.add(new Mat());
+		}
+		decoded = new Mat[depth];
+		nextToDecode = new AtomicInteger(firstFrame);
+		nextToTake = firstFrame;
+
+		workers = new Thread[threads];
+		for(int i=0; i<threads; i++) {
+			workers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					decodeFrames();
+				}
+			}, "frame-prefetch-" + i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	/**
+	 * The work carried out by each decoding thread: claim a free buffer, then the next frame number, and
+	 * decode that frame into the buffer.  Claiming the buffer first means that a frame number is only
+	 * claimed once there is somewhere to put it.
+	 */
+	private void decodeFrames() {
+		try {
+			while(true) {
+				Mat buffer = freeBuffers.take();
+				int frameNum = nextToDecode.getAndIncrement();
+				if(frameNum>lastFrame) {
+					freeBuffers.offer(buffer);
+					return;
+				}
+				Mat frame = buffer;
+				try {
+					frame = decoder.decode(frameNum, buffer);
+				} catch (RuntimeException e) {
+					if(failure==null) {
+						failure = e;
+					}
+				}
+				boolean exists = (frame!=null);
+				synchronized(this) {
+					if(exists) {
+						decoded[(frameNum-firstFrame) % decoded.length] = frame;
+					} else {
+						//the input ended before this frame, so no later frame can be decoded either.
+						lastFrame = Math.min(lastFrame, frameNum-1);
+						freeBuffers.offer(buffer);
+					}
+					notifyAll();
+				}
+				if(!exists) {
+					return;
+				}
+			}
+		} catch (InterruptedException e) {
+			//the prefetcher has been stopped.
+		}
+	}
+
+	/**
+	 * Method to get the next frame in sequence, waiting for it to be decoded if necessary.
+	 *
+	 * @return the next frame.  The Mat belongs to the pool and should be passed to release() once finished
+	 * with.
+	 * @throws RuntimeException - if decoding failed, the prefetcher has been stopped, there are no frames
+	 * left, or no frame was decoded within the timeout (e.g. because every buffer is being held).
+	 */
+	synchronized Mat take() {
+
+		int slot = (nextToTake-firstFrame) % decoded.length;
+		long deadline = System.nanoTime() + TAKE_TIMEOUT_MILLIS*1000000;
+		try {
+			while(true) {
+				if(failure!=null) {
+					throw failure;
+				}
+				if(stopped) {
+					throw new IllegalStateException("The prefetcher has been stopped.");
+				}
+				if(nextToTake>lastFrame) {
+					throw new IllegalStateException("No frames left to take.");
+				}
+				if(decoded[slot]!=null) {
+					break;
+				}
+				long remaining = (deadline - System.nanoTime()) / 1000000;
+				if(remaining<=0) {
+					throw new IllegalStateException("Timed out waiting for a frame to be decoded (are all " 
+							+ decoded.length + " prefetch buffers being held?).");
+				}
+				wait(remaining);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for a frame to be decoded.", e);
+		}
+
+		Mat frame = decoded[slot];
+		decoded[slot] = null;
+		nextToTake++;
+		return frame;
+	}
+
+	/**
+	 * Method to check whether there is another frame to take, waiting if necessary to find out whether the
+	 * input ended early.
+	 *
+	 * @return true if there is another frame (or take() will report why there is not), false if the input
+	 * has ended.
+	 */
+	synchronized boolean hasNext() {
+		int slot = (nextToTake-firstFrame) % decoded.length;
+		try {
+			while(nextToTake<=lastFrame && decoded[slot]==null && failure==null && !stopped) {
+				wait();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return nextToTake<=lastFrame;
+	}
+
+	/**
+	 * Method to return a frame obtained from take() to the pool so that its buffer can be reused.
+	 * Mats that did not come from the pool are ignored once the pool is full.
+	 *
+	 * @param frame - the frame that is finished with.
+	 */
+	void release(Mat frame) {
+		freeBuffers.offer(frame);
+	}
+
+	/**
+	 * Method to stop the decoding threads.  Waits briefly for each to finish the frame it is decoding, so 
+	 * that the input can be closed afterwards.
+	 */
+	void stop() {
+		stopped = true;
+		for(Thread t : workers) {
+			t.interrupt();
+		}
+		synchronized(this) {
+			notifyAll();
+		}
+		for(Thread t : workers) {
+			try {
+				t.join(1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+}
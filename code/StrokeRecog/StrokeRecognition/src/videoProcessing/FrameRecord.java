@@ -0,0 +1,290 @@
+package videoProcessing;
+
+import org.opencv.core.Mat;
+
+import strokeData.Coord;
+
+/**
+ * Class to capture everything that is worked out about a single frame as it passes through the processing
+ * stages of ProcessVideo (template tracking, ballpoint location, reporting).  Each stage fills in its part
+ * of the record so that the stages can be run one after another on a single thread or handed between
+ * threads in the pipelined mode.
+ *
+ * @author Simon Dicken (Student ID: 1378818)
+ * @version 2014-07-24
+ */
+public class FrameRecord {
+
+	//marker record used to signal that there are no more frames to pass down the pipeline.
+	static final FrameRecord END_OF_STREAM = new FrameRecord(-1, null);
+
+	private int frameNum;	//the frame number of this frame.
+	private Mat img;	//the frame image.
+	private Mat roi;	//the region of interest within which the template was matched.
+	private Mat filteredImg;	//the filtered version of the frame image (may be null if not calculated).
+	private Coord predictedPos;	//the position of the template predicted by the filter.
+	private Coord globalPos;	//the location of the best template match within the whole frame.
+	private long matchError;	//the error on the template match within the region of interest.
+	private long candidatesEvaluated;	//the number of template locations evaluated within the region of interest.
+	private long pixelsEvaluated;	//the number of pixels compared when matching within the region of interest.
+	private boolean globalSearch;	//whether the whole frame had to be searched to re-find the template.
+	private boolean skipped;	//whether the template was not matched, to catch up with real time.
+	private long timestamp;	//the time at which the frame was captured (milliseconds, on the System.nanoTime() clock).
+	private Coord bPoint;	//the estimated location of the pen ballpoint (null if it could not be found).
+	private long decodeNanos;	//the time taken to read the frame.
+	private long trackNanos;	//the time taken to track the template in the frame.
+	private long ballpointNanos;	//the time taken to locate the ballpoint in the frame.
+
+	/**
+	 * Constructor for FrameRecords.
+	 *
+	 * @param frameNum - the frame number of the frame.
+	 * @param img - the frame image.
+	 */
+	public FrameRecord(int frameNum, Mat img) {
+		this.frameNum = frameNum;
+		this.img = img;
+	}
+
+	/**
+	 * getter for frameNum.
+	 * @return the frame number of this frame.
+	 */
+	public int getFrameNum() {
+		return frameNum;
+	}
+
+	/**
+	 * getter for img.
+	 * @return the frame image.
+	 */
+	public Mat getImg() {
+		return img;
+	}
+
+	/**
+	 * getter for roi.
+	 * @return the region of interest within which the template was matched.
+	 */
+	public Mat getROI() {
+		return roi;
+	}
+
+	/**
+	 * setter for roi.
+	 * @param roi - the region of interest within which the template was matched.
+	 */
+	public void setROI(Mat roi) {
+		this.roi = roi;
+	}
+
+	/**
+	 * getter for filteredImg.
+	 * @return the filtered version of the frame image (may be null if not calculated).
+	 */
+	public Mat getFilteredImg() {
+		return filteredImg;
+	}
+
+	/**
+	 * setter for filteredImg.
+	 * @param filteredImg - the filtered version of the frame image.
+	 */
+	public void setFilteredImg(Mat filteredImg) {
+		this.filteredImg = filteredImg;
+	}
+
+	/**
+	 * getter for predictedPos.
+	 * @return the position of the template predicted by the filter.
+	 */
+	public Coord getPredictedPos() {
+		return predictedPos;
+	}
+
+	/**
+	 * setter for predictedPos.
+	 * @param predictedPos - the position of the template predicted by the filter.
+	 */
+	public void setPredictedPos(Coord predictedPos) {
+		this.predictedPos = predictedPos;
+	}
+
+	/**
+	 * getter for globalPos.
+	 * @return the location of the best template match within the whole frame.
+	 */
+	public Coord getGlobalPos() {
+		return globalPos;
+	}
+
+	/**
+	 * setter for globalPos.
+	 * @param globalPos - the location of the best template match within the whole frame.
+	 */
+	public void setGlobalPos(Coord globalPos) {
+		this.globalPos = globalPos;
+	}
+
+	/**
+	 * getter for matchError.
+	 * @return the error on the template match within the region of interest.
+	 */
+	public long getMatchError() {
+		return matchError;
+	}
+
+	/**
+	 * setter for matchError.
+	 * @param matchError - the error on the template match within the region of interest.
+	 */
+	public void setMatchError(long matchError) {
+		this.matchError = matchError;
+	}
+
+	/**
+	 * getter for candidatesEvaluated.
+	 * @return the number of template locations evaluated within the region of interest.
+	 */
+	public long getCandidatesEvaluated() {
+		return candidatesEvaluated;
+	}
+
+	/**
+	 * setter for candidatesEvaluated.
+	 * @param candidatesEvaluated - the number of template locations evaluated within the region of interest.
+	 */
+	public void setCandidatesEvaluated(long candidatesEvaluated) {
+		this.candidatesEvaluated = candidatesEvaluated;
+	}
+
+	/**
+	 * getter for pixelsEvaluated.
+	 * @return the number of pixels compared when matching within the region of interest.
+	 */
+	public long getPixelsEvaluated() {
+		return pixelsEvaluated;
+	}
+
+	/**
+	 * setter for pixelsEvaluated.
+	 * @param pixelsEvaluated - the number of pixels compared when matching within the region of interest.
+	 */
+	public void setPixelsEvaluated(long pixelsEvaluated) {
+		this.pixelsEvaluated = pixelsEvaluated;
+	}
+
+	/**
+	 * getter for globalSearch.
+	 * @return whether the whole frame had to be searched to re-find the template.
+	 */
+	public boolean isGlobalSearch() {
+		return globalSearch;
+	}
+
+	/**
+	 * setter for globalSearch.
+	 * @param globalSearch - whether the whole frame had to be searched to re-find the template.
+	 */
+	public void setGlobalSearch(boolean globalSearch) {
+		this.globalSearch = globalSearch;
+	}
+
+	/**
+	 * getter for skipped.
+	 * @return whether the template was not matched (only predicted) to catch up with real time.
+	 */
+	public boolean isSkipped() {
+		return skipped;
+	}
+
+	/**
+	 * setter for skipped.
+	 * @param skipped - whether the template was not matched (only predicted) to catch up with real time.
+	 */
+	public void setSkipped(boolean skipped) {
+		this.skipped = skipped;
+	}
+
+	/**
+	 * getter for timestamp.
+	 * @return the time at which the frame was captured (milliseconds, on the System.nanoTime() clock).
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * setter for timestamp.
+	 * @param timestamp - the time at which the frame was captured (milliseconds, on the System.nanoTime() 
+	 * clock).
+	 */
+	public void setTimestamp(long timestamp) {
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * getter for bPoint.
+	 * @return the estimated location of the pen ballpoint (null if it could not be found).
+	 */
+	public Coord getBPoint() {
+		return bPoint;
+	}
+
+	/**
+	 * setter for bPoint.
+	 * @param bPoint - the estimated location of the pen ballpoint.
+	 */
+	public void setBPoint(Coord bPoint) {
+		this.bPoint = bPoint;
+	}
+
+	/**
+	 * getter for decodeNanos.
+	 * @return the time taken to read the frame (nanoseconds).
+	 */
+	public long getDecodeNanos() {
+		return decodeNanos;
+	}
+
+	/**
+	 * setter for decodeNanos.
+	 * @param decodeNanos - the time taken to read the frame (nanoseconds).
+	 */
+	public void setDecodeNanos(long decodeNanos) {
+		this.decodeNanos = decodeNanos;
+	}
+
+	/**
+	 * getter for trackNanos.
+	 * @return the time taken to track the template in the frame (nanoseconds).
+	 */
+	public long getTrackNanos() {
+		return trackNanos;
+	}
+
+	/**
+	 * setter for trackNanos.
+	 * @param trackNanos - the time taken to track the template in the frame (nanoseconds).
+	 */
+	public void setTrackNanos(long trackNanos) {
+		this.trackNanos = trackNanos;
+	}
+
+	/**
+	 * getter for ballpointNanos.
+	 * @return the time taken to locate the ballpoint in the frame (nanoseconds).
+	 */
+	public long getBallpointNanos() {
+		return ballpointNanos;
+	}
+
+	/**
+	 * setter for ballpointNanos.
+	 * @param ballpointNanos - the time taken to locate the ballpoint in the frame (nanoseconds).
+	 */
+	public void setBallpointNanos(long ballpointNanos) {
+		this.ballpointNanos = ballpointNanos;
+	}
+
+}
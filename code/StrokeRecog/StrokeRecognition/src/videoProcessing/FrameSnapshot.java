@@ -0,0 +1,93 @@
+package videoProcessing;
+
+import org.opencv.core.Mat;
+
+import strokeData.Coord;
+
+/**
+ * Class holding a copy of the images and results for one processed frame, which can be handed to the
+ * FrameListeners while the processing moves on to the next frames.
+ *
+ * @author Simon Dicken (Student ID: 1378818)
+ * @version 2014-08-11
+ */
+public class FrameSnapshot {
+
+	private final int frameNum;	//the number of the frame.
+	private final Mat img;	//a copy of the frame, with the template location drawn on.
+	private final Mat roi;	//a copy of the region of interest searched for the template.
+	private Mat filteredImg;	//a copy of the filtered frame (null until first asked for, unless the
+								//processing had already filtered the whole frame).
+	private final Coord bPoint;	//the ballpoint location found in the frame (null if none).
+	private final boolean last;	//whether this is the final frame of the run.
+
+	/**
+	 * Constructor for FrameSnapshot.  The images are copied.
+	 *
+	 * @param frameNum - the number of the frame.
+	 * @param img - the frame.
+	 * @param roi - the region of interest.
+	 * @param filteredImg - the filtered frame, or null if it has not been calculated.
+	 * @param bPoint - the ballpoint location (null if none).
+	 * @param last - whether this is the final frame of the run.
+	 */
+	FrameSnapshot(int frameNum, Mat img, Mat roi, Mat filteredImg, Coord bPoint, boolean last) {
+		this.frameNum = frameNum;
+		this.img = img.clone();
+		this.roi = roi.clone();
+		this.filteredImg = (filteredImg!=null) ? filteredImg.clone() : null;
+		ProcessingMetrics.countMatAllocation();
+		ProcessingMetrics.countMatAllocation();
+		if(filteredImg!=null) {
+			ProcessingMetrics.countMatAllocation();
+		}
+		this.bPoint = bPoint;
+		this.last = last;
+	}
+
+	public int getFrameNum() {
+		return frameNum;
+	}
+
+	public Mat getImg() {
+		return img;
+	}
+
+	public Mat getROI() {
+		return roi;
+	}
+
+	/**
+	 * getter for the filtered version of the frame.  Only the region of interest is filtered while the
+	 * template is being tracked, so the whole frame is filtered here (on the listener thread) the first time
+	 * it is asked for.
+	 *
+	 * @return the filtered frame.
+	 */
+	public synchronized Mat getFilteredImg() {
+		if(filteredImg==null) {
+			filteredImg = ProcessImage.filterColour(img, ProcessImage.BLACK_LOW_HSV, ProcessImage.BLACK_HIGH_HSV);
+		}
+		return filteredImg;
+	}
+
+	public Coord getBPoint() {
+		return bPoint;
+	}
+
+	public boolean isLast() {
+		return last;
+	}
+
+	/**
+	 * Method to free the memory held by the snapshot's images.
+	 */
+	synchronized void release() {
+		img.release();
+		roi.release();
+		if(filteredImg!=null) {
+			filteredImg.release();
+		}
+	}
+
+}
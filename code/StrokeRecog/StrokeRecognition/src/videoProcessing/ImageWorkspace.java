@@ -0,0 +1,168 @@
+package videoProcessing;
+
+import java.util.HashMap;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Class holding the scratch images, buffers and other objects used by the image processing operations, so 
+ * that they can be reused from frame to frame rather than allocated again for every frame.  OpenCV only
+ * reallocates a destination Mat when its size or type changes, so once the first frame has been processed
+ * the scratch Mats are simply overwritten.
+ *
+ * Each thread has its own workspace (see get()), so a scratch Mat should only be used until the same
+ * thread next asks for it by name.  Results that must outlive that should be copied or written into a Mat
+ * owned by the caller.
+ *
+ * @author Simon Dicken (Student ID: 1378818)
+ * @version 2014-07-28
+ */
+public class ImageWorkspace {
+
+	//the workspace belonging to each thread.
+	private static final ThreadLocal<ImageWorkspace> WORKSPACES = new ThreadLocal<ImageWorkspace>() {
+		@Override
+		protected ImageWorkspace initialValue() {
+			return new ImageWorkspace();
+		}
+	};
+
+	private final HashMap<String, Mat> scratch = new HashMap<String, Mat>();	//the named scratch images.
+	private final HashMap<Integer, Mat> rectElements = new HashMap<Integer, Mat>();	//structuring elements by size.
+	private final HashMap<Integer, Size> squareSizes = new HashMap<Integer, Size>();	//square Sizes by dimension.
+	private final HashMap<String, byte[]> byteBuffers = new HashMap<String, byte[]>();	//the named byte buffers.
+	private final HashMap<String, float[]> floatBuffers = new HashMap<String, float[]>();	//the named float buffers.
+	private final HashMap<String, double[]> doubleBuffers = new HashMap<String, double[]>();	//the named double buffers.
+
+	/**
+	 * getter for the workspace belonging to the current thread.
+	 *
+	 * @return the current thread's workspace.
+	 */
+	public static ImageWorkspace get() {
+		return WORKSPACES.get();
+	}
+
+	/**
+	 * Method to get the scratch image with the specified name, creating an empty one the first time it is
+	 * asked for.  Callers should use a name unique to their use (e.g. prefixed by the class name) so that
+	 * different operations do not overwrite each other's intermediates.
+	 *
+	 * @param name - the name of the scratch image.
+	 * @return the scratch image.
+	 */
+	public Mat getMat(String name) {
+		Mat m = scratch.get(name);
+		if(m==null) {
+			m = new Mat();
+			ProcessingMetrics.countMatAllocation();
+			scratch.put(name, m);
+		}
+		return m;
+	}
+
+	/**
+	 * Method to get the byte buffer with the specified name, for bulk copying pixel data in and out of Mats.
+	 * The buffer is only reallocated when the length asked for changes (Mat.get() and Mat.put() copy the 
+	 * whole array, so the buffer is always exactly the length asked for).
+	 * 
+	 * @param name - the name of the buffer.
+	 * @param length - the number of bytes needed.
+	 * @return a byte array of the specified length.
+	 */
+	public byte[] getBytes(String name, int length) {
+		byte[] buf = byteBuffers.get(name);
+		if(buf==null || buf.length!=length) {
+			buf = new byte[length];
+			byteBuffers.put(name, buf);
+		}
+		return buf;
+	}
+	
+	/**
+	 * Method to get the float buffer with the specified name (e.g. for bulk copying the contents of 32-bit 
+	 * floating point Mats).  As with getDoubles(), the buffer is only reallocated when it is too small, so 
+	 * it may be longer than the length asked for.  Mat.get() only fills as much of the array as the Mat
+	 * has data for, but for a multi-channel Mat the length must be a multiple of the number of channels.
+	 * 
+	 * @param name - the name of the buffer.
+	 * @param length - the number of floats needed.
+	 * @return a float array of at least the specified length.
+	 */
+	public float[] getFloats(String name, int length) {
+		float[] buf = floatBuffers.get(name);
+		if(buf==null || buf.length<length) {
+			buf = new float[length];
+			floatBuffers.put(name, buf);
+		}
+		return buf;
+	}
+	
+	/**
+	 * Method to get the double buffer with the specified name.  Unlike getBytes() and getFloats(), the 
+	 * buffer is only reallocated when it is too small, so it may be longer than the length asked for.
+	 * 
+	 * @param name - the name of the buffer.
+	 * @param length - the number of doubles needed.
+	 * @return a double array of at least the specified length.
+	 */
+	public double[] getDoubles(String name, int length) {
+		double[] buf = doubleBuffers.get(name);
+		if(buf==null || buf.length<length) {
+			buf = new double[length];
+			doubleBuffers.put(name, buf);
+		}
+		return buf;
+	}
+	
+	/**
+	 * Method to get a rectangular structuring element (for dilation/erosion) of the specified dimensions.
+	 *
+	 * @param kSize - the dimensions of the structuring element.
+	 * @return a kSize x kSize rectangular structuring element.
+	 */
+	public Mat getStructuringElement(int kSize) {
+		Mat element = rectElements.get(kSize);
+		if(element==null) {
+			element = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, getSquareSize(kSize));
+			rectElements.put(kSize, element);
+		}
+		return element;
+	}
+
+	/**
+	 * Method to get a Size object with equal width and height.
+	 *
+	 * @param dims - the width and height.
+	 * @return a Size of dims x dims.
+	 */
+	public Size getSquareSize(int dims) {
+		Size size = squareSizes.get(dims);
+		if(size==null) {
+			size = new Size(dims, dims);
+			squareSizes.put(dims, size);
+		}
+		return size;
+	}
+
+	/**
+	 * Method to free the native memory held by this workspace.  The workspace can still be used afterwards,
+	 * in which case the scratch images are allocated again.
+	 */
+	public void release() {
+		for(Mat m : scratch.values()) {
+			m.release();
+		}
+		for(Mat m : rectElements.values()) {
+			m.release();
+		}
+		scratch.clear();
+		rectElements.clear();
+		byteBuffers.clear();
+		floatBuffers.clear();
+		doubleBuffers.clear();
+	}
+
+}
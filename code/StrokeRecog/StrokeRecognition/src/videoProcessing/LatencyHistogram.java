@@ -0,0 +1,128 @@
+package videoProcessing;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Class to record a distribution of latencies without locking, so that it can be updated from the
+ * processing threads and read from a monitoring thread at the same time.
+ *
+ * The latencies are counted in buckets whose width grows with the latency: each power of 2 is split into
+ * SUB_BUCKETS equal buckets, so any latency is known to within about 6% (values below SUB_BUCKETS are
+ * exact).  Recording a latency is a few atomic increments and never allocates.
+ *
+ * @author Simon Dicken (Student ID: 1378818)
+ * @version 2014-08-13
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;	//the number of buckets per power of 2.
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;	//enough for any positive long.
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);	//the number of latencies in each bucket.
+	private final AtomicLong count = new AtomicLong();	//the number of latencies recorded.
+	private final AtomicLong total = new AtomicLong();	//the sum of the latencies recorded.
+	private final AtomicLong max = new AtomicLong();	//the largest latency recorded.
+
+	/**
+	 * Method to record a latency.
+	 *
+	 * @param nanos - the latency in nanoseconds (negative values are recorded as 0).
+	 */
+	public void record(long nanos) {
+		long v = Math.max(0, nanos);
+		counts.incrementAndGet(bucket(v));
+		count.incrementAndGet();
+		total.addAndGet(v);
+		long m = max.get();
+		while(v>m && !max.compareAndSet(m, v)) {
+			m = max.get();
+		}
+	}
+
+	/**
+	 * Method to work out which bucket a latency is counted in.
+	 *
+	 * @param v - the latency (not negative).
+	 * @return the index of the bucket.
+	 */
+	private static int bucket(long v) {
+		if(v<SUB_BUCKETS) {
+			return (int) v;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BUCKET_BITS;
+		int sub = (int) (v >>> shift) & (SUB_BUCKETS-1);
+		return (shift+1)*SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * Method to work out the largest latency counted in a bucket.
+	 *
+	 * @param index - the index of the bucket.
+	 * @return the largest latency in the bucket.
+	 */
+	private static long bucketMax(int index) {
+		if(index<SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index/SUB_BUCKETS - 1;
+		long sub = index % SUB_BUCKETS;
+		return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+	}
+
+	/**
+	 * Method to estimate a percentile of the latencies recorded.  The estimate is the top of the bucket the
+	 * percentile falls in (but no more than the largest latency recorded), so it is never an underestimate.
+	 *
+	 * @param percentile - the percentile (between 0 and 100).
+	 * @return the latency at the percentile in nanoseconds, or 0 if nothing has been recorded.
+	 */
+	public long getPercentile(double percentile) {
+		long n = count.get();
+		if(n==0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(n * percentile / 100));
+		long seen = 0;
+		for(int i=0; i<BUCKETS; i++) {
+			seen += counts.get(i);
+			if(seen>=rank) {
+				return Math.min(bucketMax(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * getter for the mean latency.
+	 *
+	 * @return the mean latency in nanoseconds, or 0 if nothing has been recorded.
+	 */
+	public double getMean() {
+		long n = count.get();
+		return (n>0) ? total.get() / (double) n : 0;
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Method to clear the histogram.  Latencies recorded while the histogram is being cleared may be only
+	 * partly cleared (e.g. counted in a bucket but not in the total).
+	 */
+	public void reset() {
+		for(int i=0; i<BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		total.set(0);
+		max.set(0);
+	}
+
+}
@@ -0,0 +1,214 @@
+package videoProcessing;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opencv.core.Mat;
+import org.opencv.highgui.VideoCapture;
+
+/**
+ * Class which reads frames from a camera continuously on a background thread, keeping only the newest
+ * one.  Reading as fast as the camera delivers frames stops the driver's buffer filling up with old frames
+ * when the processing is slower than the camera, so the frame handed out by take() is always the most
+ * recent one and the latency stays bounded.  Frames which are replaced before they are taken are dropped
+ * (and counted).
+ *
+ * The frames are read into a fixed pool of buffers.  Each frame returned by take() belongs to the caller
+ * until it is handed back with release().  If the caller is holding all the buffers, the frames read in
+ * the meantime are dropped.
+ *
+ * @author Simon Dicken (Student ID: 1378818)
+ * @version 2014-08-13
+ */
+class LatestFrameCapture {
+
+	private static final long READ_RETRY_MILLIS = 10;	//how long to wait before retrying a failed read.
+
+	private final VideoCapture camera;	//the camera to read from.
+	private final BlockingQueue<Mat> free;	//buffers which can be read into.
+	private final Mat discard = new Mat();	//buffer used to read (and drop) frames when there are no free ones.
+	private final Thread thread;	//the thread reading from the camera.
+	private volatile boolean running = true;	//set to false to stop the thread.
+	private final AtomicLong dropped = new AtomicLong();	//the number of frames read but never taken.
+
+	//the newest frame read that has not been taken yet (null if none), with its sequence number (the
+	//number of frames read from the camera, including this one) and the time it was read.
+	private Mat latest;
+	private long latestSeq;
+	private long latestTime;
+
+	//the sequence number and capture time of the frame returned by the last take().
+	private long takenSeq;
+	private long takenTime;
+
+	/**
+	 * Constructor for LatestFrameCapture.  Starts the capture thread.
+	 *
+	 * @param camera - the opened camera to read from.
+	 * @param buffers - the number of frame buffers (at least 3: one being read into, one holding the newest
+	 * frame and one held by the caller).
+	 */
+	LatestFrameCapture(VideoCapture camera, int buffers) {
+		if(buffers<3) {
+			throw new IllegalArgumentException("At least 3 buffers are needed.");
+		}
+		this.camera = camera;
+		free = new ArrayBlockingQueue<Mat>(buffers);
+		for(int i=0; i<buffers; i++) {
+			free.add(new Mat());
+		}
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				capture();
+			}
+		}, "webcam-capture");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Method run by the capture thread.  Reads frames from the camera until stopped or the camera is 
+	 * released, replacing the newest frame with each one read.
+	 */
+	private void capture() {
+		try {
+			captureFrames();
+		} finally {
+			//wake any caller waiting in take(), which will find there are no more frames coming.
+			synchronized(this) {
+				running = false;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Method to read frames from the camera until stopped or the camera is released.
+	 */
+	private void captureFrames() {
+		long sequence = 0;
+		while(running) {
+			Mat buf = free.poll();
+			Mat target = (buf!=null) ? buf : discard;
+			if(!camera.read(target)) {
+				if(buf!=null) {
+					free.offer(buf);
+				}
+				if(!camera.isOpened()) {
+					return;
+				}
+				try {
+					Thread.sleep(READ_RETRY_MILLIS);
+				} catch (InterruptedException e) {
+					return;
+				}
+				continue;
+			}
+			long now = System.nanoTime() / 1000000;
+			sequence++;
+
+			if(buf==null) {
+				dropped.incrementAndGet();
+				continue;
+			}
+			synchronized(this) {
+				if(latest!=null) {
+					free.offer(latest);
+					dropped.incrementAndGet();
+				}
+				latest = buf;
+				latestSeq = sequence;
+				latestTime = now;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Method to take the newest frame, waiting for one to be read if the newest has already been taken.
+	 *
+	 * @return the newest frame (hand it back with release() once it is no longer needed).
+	 * @throws IllegalStateException - if there is no frame waiting and the capture has stopped (because 
+	 * stop() was called or the camera was released).
+	 * @throws RuntimeException - if interrupted while waiting for a frame.
+	 */
+	synchronized Mat take() {
+		try {
+			while(latest==null) {
+				if(!running) {
+					throw new IllegalStateException("The webcam capture has stopped.");
+				}
+				wait();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for a webcam frame.", e);
+		}
+		Mat frame = latest;
+		latest = null;
+		takenSeq = latestSeq;
+		takenTime = latestTime;
+		return frame;
+	}
+
+	/**
+	 * Method to hand back a frame returned by take(), so it can be read into again.
+	 *
+	 * @param frame - the frame.
+	 */
+	void release(Mat frame) {
+		free.offer(frame);
+	}
+
+	/**
+	 * Method to stop the capture thread.  Waits for it to finish its current read (which ends within a frame
+	 * period, or when the read fails), so that the camera can safely be released afterwards.
+	 *
+	 * @throws IllegalStateException - if interrupted before the capture thread had stopped, in which case
+	 * the camera must not be released yet.
+	 */
+	void stop() {
+		synchronized(this) {
+			running = false;
+			notifyAll();
+		}
+		thread.interrupt();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted before the webcam capture thread had stopped.", e);
+		}
+	}
+
+	/**
+	 * getter for the sequence number of the frame returned by the last take().  Frames are numbered from
+	 * 1 in the order they were read from the camera, so the gaps show how many frames were dropped.
+	 *
+	 * @return the sequence number of the last frame taken.
+	 */
+	synchronized long getSequence() {
+		return takenSeq;
+	}
+
+	/**
+	 * getter for the time at which the frame returned by the last take() was read from the camera.
+	 *
+	 * @return the capture time (milliseconds, on the System.nanoTime() clock).
+	 */
+	synchronized long getCaptureTime() {
+		return takenTime;
+	}
+
+	/**
+	 * getter for the number of frames read from the camera which were never taken.
+	 *
+	 * @return the number of frames dropped.
+	 */
+	long getDropped() {
+		return dropped.get();
+	}
+
+}
@@ -16,6 +16,11 @@ public class ProcessFile extends ProcessVideo {
 	private int frameNum;	//the current frame number.
 	private int lastFrame;		//the final frame number
 	private VideoCapture vid;	//the object through which the video file is accessed.
+	private FramePrefetcher prefetcher;	//the object decoding frames ahead (null if frames are read on demand).
+	
+	public static final int FIRST_FRAME_NUM = 2;	//the number of the first frame of a video file.
+	private static final int CAP_PROP_POS_FRAMES = 1;	//video property code for the next frame to read.
+	private static final int CAP_PROP_FRAME_COUNT = 7;	//video property code for the frame count.
 	
 	/**
 	 * Constructor for ProcessFile objects with automatic template extraction.
@@ -38,6 +43,47 @@ public class ProcessFile extends ProcessVideo {
 		setupVideoFile(videoFile);
 	}
 	
+	/**
+	 * Constructor for ProcessFile objects which only process part of the video file, with a user-defined
+	 * template.  The frames are numbered in the same way as when the whole file is processed (each frame is
+	 * numbered with getFrameNum() after it has been read, so the first frame of the file is FIRST_FRAME_NUM).
+	 * The video is seeked to the first frame, which may not be exact for every video format.
+	 * 
+	 * @param videoFile - the full file path including extension of the video file to use as input.
+	 * @param template - the full file path including extension of the image file to use as template.
+	 * @param startFrame - the number of the first frame to process.
+	 * @param endFrame - the number of the last frame to process.
+	 */
+	public ProcessFile(String videoFile, String template, int startFrame, int endFrame) {
+		super(template);
+		if(startFrame<FIRST_FRAME_NUM || endFrame<startFrame) {
+			throw new IllegalArgumentException("Invalid frame range.");
+		}
+		setupVideoFile(videoFile);
+		if(startFrame>FIRST_FRAME_NUM) {
+			vid.set(CAP_PROP_POS_FRAMES, startFrame-FIRST_FRAME_NUM);
+		}
+		frameNum = startFrame-1;
+		lastFrame = Math.min(lastFrame, endFrame-1);
+	}
+	
+	/**
+	 * Method to count the frames in a video file.
+	 * 
+	 * @param videoFile - the full file path including extension of the video file.
+	 * @return the number of frames (the frames are numbered from FIRST_FRAME_NUM up to 
+	 * FIRST_FRAME_NUM + count - 1).
+	 */
+	public static int countFrames(String videoFile) {
+		VideoCapture vid = new VideoCapture(videoFile);
+		if(!vid.isOpened()) {
+			throw new VideoInitialisationException("Could not read from specified file.");
+		}
+		int count = (int) vid.get(CAP_PROP_FRAME_COUNT);
+		vid.release();
+		return count;
+	}
+	
 	/**
 	 * Method to initialise the field variables.
 	 * 
@@ -49,19 +95,75 @@ public class ProcessFile extends ProcessVideo {
 			throw new VideoInitialisationException("Could not read from specified file.");
 		}
 		frameNum = 1;
-		lastFrame = (int) vid.get(7);	//video property code 7 is the frame count.
+		lastFrame = (int) vid.get(CAP_PROP_FRAME_COUNT);
+	}
+
+	/**
+	 * Method to start decoding frames ahead of the processing on a background thread.  The frames are 
+	 * decoded into a fixed pool of buffers which are reused once each frame has been released (see 
+	 * releaseFrame()).  Must be called before any frames have been read.
+	 * 
+	 * @param depth - the number of frames to decode ahead (at least FramePrefetcher.MIN_DEPTH, and 
+	 * 2*queueSize+4 to keep every stage busy if the processing is pipelined).
+	 */
+	public void startPrefetch(int depth) {
+		if(prefetcher!=null) {
+			throw new IllegalStateException("Prefetching has already been started.");
+		}
+		prefetcher = new FramePrefetcher(new FramePrefetcher.FrameDecoder() {
+			@Override
+			public Mat decode(int frameNum, Mat dst) {
+				//the video file can only be read sequentially, so frameNum is always the next frame.  The
+				//frame count is only an estimate for some formats, so the file may end sooner.
+				return vid.read(dst) ? dst : null;
+			}
+		}, frameNum, lastFrame, depth, 1);
+	}
+	
+	/**
+	 * Method to stop decoding frames ahead of the processing.
+	 */
+	public void stopPrefetch() {
+		if(prefetcher!=null) {
+			prefetcher.stop();
+		}
+	}
+
+	/**
+	 * Method to stop any prefetching and release the video file's decoder.
+	 */
+	@Override
+	public void closeInput() {
+		stopPrefetch();
+		vid.release();
 	}
 
 	@Override
 	public Mat getFrame() {
-		Mat frame = new Mat();
-		vid.read(frame);
+		Mat frame;
+		if(prefetcher!=null) {
+			frame = prefetcher.take();
+		} else {
+			frame = new Mat();
+			ProcessingMetrics.countMatAllocation();
+			vid.read(frame);
+		}
 		frameNum++;
 		return frame;
 	}
 	
+	@Override
+	public void releaseFrame(Mat frame) {
+		if(prefetcher!=null) {
+			prefetcher.release(frame);
+		}
+	}
+	
 	@Override
 	public boolean frameAvailable() {
+		if(prefetcher!=null) {
+			return prefetcher.hasNext();
+		}
 		return (frameNum<=lastFrame);
 	}
 	
@@ -1,6 +1,7 @@
 package videoProcessing;
 
 import org.opencv.core.Core;
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.Point;
 import org.opencv.core.Scalar;
@@ -21,6 +22,12 @@ public class ProcessImage {
 	public static final Scalar BLACK_LOW_HSV = new Scalar(0,0,0);
 	public static final Scalar BLACK_HIGH_HSV = new Scalar(255,75,50);
 	
+	//the name of the workspace scratch image used to hold the HSV version of an image being filtered.
+	private static final String HSV_SCRATCH = "ProcessImage.hsv";
+	
+	//whether filterColour() uses a precomputed colour lookup table rather than converting to HSV.
+	private static volatile boolean lookupTableFiltering = false;
+	
 	/**
 	 * Method to filter out colours from a src image using the defined ranges.  Pixels falling within the 
 	 * range are returned as 1, all other pixels are 0.  
@@ -33,13 +40,46 @@ public class ProcessImage {
 	 */
 	public static Mat filterColour(Mat src, Scalar low, Scalar high) {
 		Mat stripped = new Mat();
+		filterColour(src, low, high, stripped);
+		return stripped;
+	}
+	
+	/**
+	 * Method to filter out colours from a src image using the defined ranges, writing the result into the
+	 * supplied destination.  Pixels falling within the range are set to 255, all other pixels are 0.
+	 * (The HSV intermediate image is kept in the current thread's ImageWorkspace).
+	 * 
+	 * @param src - input image in RGB format.
+	 * @param low - Scalar of HSV values representing the low threshold.
+	 * @param high - Scalar of HSV values representing the high threshold.
+	 * @param dst - the Mat to write the single-channel filtered image into (must not be src).
+	 * @see #setLookupTableFiltering(boolean)
+	 */
+	public static void filterColour(Mat src, Scalar low, Scalar high, Mat dst) {
+		if(lookupTableFiltering && src.type()==CvType.CV_8UC3) {
+			ColourLookupTable.forRange(low, high).filter(src, dst);
+			return;
+		}
+		Mat hsv = ImageWorkspace.get().getMat(HSV_SCRATCH);
 //		src.copyTo(stripped);
-		Imgproc.cvtColor(src, stripped, Imgproc.COLOR_BGR2HSV);
-		Core.inRange(stripped, low, high, stripped);
+		Imgproc.cvtColor(src, hsv, Imgproc.COLOR_BGR2HSV);
+		Core.inRange(hsv, low, high, dst);
 		//erode here perhaps?
 //		Imgproc.cvtColor(src, stripped, Imgproc.COLOR_BGR2GRAY);
 //		Imgproc.threshold(stripped, stripped, 50, 255, Imgproc.THRESH_BINARY);
-		return stripped;
+	}
+	
+	/**
+	 * Method to choose how filterColour() works.  With lookup table filtering, each (low, high) range has a
+	 * table built the first time it is used which says whether each BGR colour is in range, and the image 
+	 * is then filtered in a single pass over its bytes.  Otherwise the image is converted to HSV and then
+	 * thresholded.  Both give the same result; the lookup table is worthwhile when the same ranges are used 
+	 * for many frames.
+	 * 
+	 * @param useLookupTable - true to filter using lookup tables, false to convert to HSV.
+	 */
+	public static void setLookupTableFiltering(boolean useLookupTable) {
+		lookupTableFiltering = useLookupTable;
 	}
 	
 	/**
@@ -91,10 +131,21 @@ public class ProcessImage {
 	 */
 	public static Mat normalise(Mat src) {
 		Mat dst = new Mat();
-		Core.normalize(src, dst, 0, 255, Core.NORM_MINMAX);
+		normalise(src, dst);
 		return dst;
 	}
 	
+	/**
+	 * Method to normalise an image between values of 0 and 255, writing the result into the supplied 
+	 * destination.
+	 * 
+	 * @param src - the image to normalise.
+	 * @param dst - the Mat to write the normalised image into.
+	 */
+	public static void normalise(Mat src, Mat dst) {
+		Core.normalize(src, dst, 0, 255, Core.NORM_MINMAX);
+	}
+	
 	/**
 	 * Converts a BGR image to a grayscale image.
 	 * 
@@ -103,10 +154,20 @@ public class ProcessImage {
 	 */
 	public static Mat convertToGray(Mat src) {
 		Mat dst = new Mat();
-		Imgproc.cvtColor(src, dst, Imgproc.COLOR_BGR2GRAY);
+		convertToGray(src, dst);
 		return dst;
 	}
 	
+	/**
+	 * Converts a BGR image to a grayscale image, writing the result into the supplied destination.
+	 * 
+	 * @param src - the BGR image to convert
+	 * @param dst - the Mat to write the grayscale image into.
+	 */
+	public static void convertToGray(Mat src, Mat dst) {
+		Imgproc.cvtColor(src, dst, Imgproc.COLOR_BGR2GRAY);
+	}
+	
 	/**
 	 * Performs a image dilation operation on the source image.
 	 * 
@@ -116,10 +177,21 @@ public class ProcessImage {
 	 */
 	public static Mat dilate(Mat src, int kSize) {
 		Mat dst = new Mat();
-		Mat element = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(kSize, kSize));
-		Imgproc.dilate(src, dst, element);
+		dilate(src, kSize, dst);
 		return dst;
 	}
+	
+	/**
+	 * Performs a image dilation operation on the source image, writing the result into the supplied 
+	 * destination.  (The structuring element is cached in the current thread's ImageWorkspace).
+	 * 
+	 * @param src - the image to dilate.
+	 * @param kSize the dimensions of the kernel to use in the dilation operation.
+	 * @param dst - the Mat to write the dilated image into.
+	 */
+	public static void dilate(Mat src, int kSize, Mat dst) {
+		Imgproc.dilate(src, dst, ImageWorkspace.get().getStructuringElement(kSize));
+	}
 
 	/**
 	 * Applies a blur to the source image.
@@ -130,10 +202,21 @@ public class ProcessImage {
 	 */
 	public static Mat blur(Mat src, int ksize) {
 		Mat dst = new Mat();
-		Imgproc.blur(src, dst, new Size(ksize,ksize));
+		blur(src, ksize, dst);
 		return dst;
 	}
 	
+	/**
+	 * Applies a blur to the source image, writing the result into the supplied destination.
+	 * 
+	 * @param src - the image to blur.
+	 * @param ksize - the dimensions of the kernel to use.
+	 * @param dst - the Mat to write the blurred image into.
+	 */
+	public static void blur(Mat src, int ksize, Mat dst) {
+		Imgproc.blur(src, dst, ImageWorkspace.get().getSquareSize(ksize));
+	}
+	
 	/**
 	 * Method to carry out Canny edge detection on a source image.
 	 * 
@@ -146,10 +229,23 @@ public class ProcessImage {
 		Mat dst = new Mat();
 //		double highThresh = Imgproc.threshold(src, new Mat(), 250, 255, Imgproc.THRESH_BINARY);
 //		double lowThresh = highThresh/2;
-		Imgproc.Canny(src, dst, lowThresh, highThresh);
+		cannyEdge(src, highThresh, lowThresh, dst);
 		return dst;
 	}
 	
+	/**
+	 * Method to carry out Canny edge detection on a source image, writing the edge map into the supplied
+	 * destination.
+	 * 
+	 * @param src - the image to apply the edge detection to.
+	 * @param highThresh - used to find initial strong edge segments.
+	 * @param lowThresh - used to determine how to link edges.
+	 * @param dst - the Mat to write the edge map into (same size and type as src).
+	 */
+	public static void cannyEdge(Mat src, int highThresh, int lowThresh, Mat dst) {
+		Imgproc.Canny(src, dst, lowThresh, highThresh);
+	}
+	
 	/**
 	 * Uses the output of a Hough line transform, lines, to draw all the lines on a source image.
 	 * The lines are drawn in varying shades of red.
@@ -233,11 +329,23 @@ public class ProcessImage {
 	public static Mat convolveImage(Mat src, Mat kernel) {
 		
 		Mat dst = new Mat();
-		Imgproc.filter2D(src, dst, -1, kernel);
+		convolveImage(src, kernel, dst);
 		return dst;
 		
 	}
 	
+	/**
+	 * Performs a 2D filter on the source image using the specified kernel, writing the result into the 
+	 * supplied destination.
+	 * 
+	 * @param src - the image to filter.
+	 * @param kernel - the kernel to use in the filtering process.
+	 * @param dst - the Mat to write the filtered image into.
+	 */
+	public static void convolveImage(Mat src, Mat kernel, Mat dst) {
+		Imgproc.filter2D(src, dst, -1, kernel);
+	}
+	
 	/**
 	 * Method to create a 3x3 kernel that can be used in conjunction with a 2D filter (ref convolveImage() )
 	 * to sharpen an image.
@@ -17,6 +17,7 @@ public class ProcessJpgs extends ProcessVideo {
 	private int lastFrame;	//the final frame number.
 	private String videoFile;	//the file path up to but not including the number of the frame  
 								//(e.g. "C:\\video\\frame_")
+	private FramePrefetcher prefetcher;	//the object decoding frames ahead (null if frames are read on demand).
 	
 	/**
 	 * Constructor for ProcessJpgs objects with automatic template extraction.
@@ -53,15 +54,78 @@ public class ProcessJpgs extends ProcessVideo {
 		this.lastFrame = lastFrame;
 	}
 
+	/**
+	 * Method to start decoding frames ahead of the processing on background threads.  Each jpg can be 
+	 * decoded independently, so the decoding is spread across the specified number of threads.  No more 
+	 * than depth frames are held at once, and each is handed back with releaseFrame().  OpenCV 2.4 cannot
+	 * decode a jpg into an existing Mat, so (unlike ProcessFile) each frame is still a newly allocated Mat,
+	 * but it is handed out as decoded rather than copied into a pool buffer.  Must be called before any 
+	 * frames have been read.
+	 * 
+	 * @param depth - the number of frames to decode ahead (at least FramePrefetcher.MIN_DEPTH, and 
+	 * 2*queueSize+4 to keep every stage busy if the processing is pipelined).
+	 * @param threads - the number of threads to decode the frames on.
+	 */
+	public void startPrefetch(int depth, int threads) {
+		if(prefetcher!=null) {
+			throw new IllegalStateException("Prefetching has already been started.");
+		}
+		prefetcher = new FramePrefetcher(new FramePrefetcher.FrameDecoder() {
+			@Override
+			public Mat decode(int frameNum, Mat dst) {
+				Mat frame = Highgui.imread(videoFile + frameNum + ".jpg");
+				ProcessingMetrics.countMatAllocation();
+				if(frame.empty()) {
+					//the jpg is missing or unreadable, so the sequence ends here.
+					return null;
+				}
+				//imread always allocates, so the decoded image takes the place of the buffer (whose memory 
+				//is freed) rather than being copied into it.
+				dst.release();
+				return frame;
+			}
+		}, frameNum, lastFrame, depth, threads);
+	}
+	
+	/**
+	 * Method to stop decoding frames ahead of the processing.
+	 */
+	public void stopPrefetch() {
+		if(prefetcher!=null) {
+			prefetcher.stop();
+		}
+	}
+
+	@Override
+	public void closeInput() {
+		stopPrefetch();
+	}
+
 	@Override
 	public Mat getFrame() {
-		Mat frame = Highgui.imread(videoFile + frameNum + ".jpg");
+		Mat frame;
+		if(prefetcher!=null) {
+			frame = prefetcher.take();
+		} else {
+			frame = Highgui.imread(videoFile + frameNum + ".jpg");
+			ProcessingMetrics.countMatAllocation();
+		}
 		frameNum++;
 		return frame;
 	}
+	
+	@Override
+	public void releaseFrame(Mat frame) {
+		if(prefetcher!=null) {
+			prefetcher.release(frame);
+		}
+	}
 
 	@Override
 	public boolean frameAvailable() {
+		if(prefetcher!=null) {
+			return prefetcher.hasNext();
+		}
 		return (frameNum<=lastFrame);
 	}
 	
@@ -1,11 +1,13 @@
 package videoProcessing;
 
-import java.util.Observable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import org.opencv.core.Mat;
 import org.opencv.core.Point;
 import org.opencv.highgui.Highgui;
 
+import ballpointLocating.BallpointDetector;
 import ballpointLocating.BallpointLocator;
 import penFinding.PenLocator;
 import penTracking.KalmanFilter;
@@ -16,20 +18,25 @@ import upDownClassifier.StrokeClassifier;
  * Abstract class used to process an input video.
  * The class has concrete implementations for different input video types (e.g. webcam, video file, 
  * collection of jpg images).
- * This forms the Model part of the Model-View pattern used for the GUI.
+ * This forms the Model part of the Model-View pattern used for the GUI: views register a FrameListener and
+ * are sent snapshots of the processed frames.
  * 
  * @author Simon Dicken (Student ID: 1378818)
  * @version 2014-07-16
  */
-public abstract class ProcessVideo extends Observable {
+public abstract class ProcessVideo {
 	
 	private Mat img;	//the current frame.
 	private Mat roi;	//the region of interest within which the template is matched.
-	private Mat filteredImg;	//the current frame with some filtering or other processing applied.
+	private Mat filteredImg;	//the current frame with some filtering or other processing applied (only 
+								//calculated when needed - see getFilteredImg()).
 	private PenLocator pl;	//the object used to find the template.
 	private KalmanFilter filter;	//the object used to track the template.
-	private BallpointLocator bpl;	//the object used to find the very tip of the pen.
+	private BallpointDetector bpl;	//the object used to find the very tip of the pen.
 	private StrokeClassifier sc;	//the object used to classify if a stroke is pen-up or pen-down.
+	private DebugFrameSink debugSink;	//where intermediate images are sent (null for no debug output).
+	private final FrameDispatcher dispatcher = new FrameDispatcher(DEFAULT_LISTENER_RATE);	//updates the listeners.
+	private static final double DEFAULT_LISTENER_RATE = 30;	//the default most listener updates per second.
 	
 	//the threshold which determines whether the tracker has lost the template.  If the template-match error
 	//has exceeded this value, the program reverts to searching the whole image to try to re-find the template.
@@ -40,6 +47,50 @@ public abstract class ProcessVideo extends Observable {
 	//2*SEARCH_SIZE x 2*SEARCH_SIZE.
 	private static final int SEARCH_SIZE = 20;	
 	
+	//settings for sizing the ROI from the filter's uncertainty in the predicted position.  If adaptiveSigmas
+	//is 0, the ROI is always sized by SEARCH_SIZE.  Otherwise the ROI is extended by adaptiveSigmas standard
+	//deviations of the predicted position in each direction, clamped between minSearchSize and maxSearchSize.
+	private double adaptiveSigmas = 0;
+	private int minSearchSize;
+	private int maxSearchSize;
+	
+	//counts for the current run of how many frames were tracked, how many needed the whole frame searching
+	//and how many were found by the adaptive ROI outside of where the fixed-size ROI would have looked.
+	private int framesTracked;
+	private int globalSearches;
+	private int globalSearchesAvoided;
+	
+	//settings for skipping frames when the processing falls behind real time.  If maxLagMillis is 0, every
+	//frame is processed.  Otherwise a frame captured more than maxLagMillis ago only has the template 
+	//position predicted, but never more than MAX_CONSECUTIVE_SKIPS frames in a row so the track is not lost.
+	//Inputs without capture times are taken to run at nominalFrameRate from the start of processing.
+	private long maxLagMillis = 0;
+	private double nominalFrameRate = DEFAULT_FRAME_RATE;
+	private static final int MAX_CONSECUTIVE_SKIPS = 4;
+	private static final double DEFAULT_FRAME_RATE = 30;
+	
+	private long processingStart;	//the time processing started (milliseconds, on the System.nanoTime() clock).
+	private int firstFrameNum = -1;	//the frame number of the first frame (-1 until it has been read).
+	private int lastMeasuredFrame;	//the frame number of the last frame in which the template was matched.
+	private int consecutiveSkips;	//the number of frames skipped since the template was last matched.
+	private int framesSkipped;	//the number of frames skipped in the current run.
+	
+	private boolean printSummary = true;	//whether to print out a summary of each frame and of the run.
+	private TraceWriter traceWriter;	//where the trace record of each frame is written (null for no trace).
+	private ProcessingMetrics metrics;	//the stage latencies and counters (null if not being recorded).
+	
+	//the number of frames that can be waiting between stages when the processing is pipelined.  If 0, all
+	//the processing is done on the thread that calls startProcessing().
+	private int pipelineQueueSize = 0;
+	private FramePipeline pipeline;	//the pipeline used for the most recent pipelined run (null if none).
+	
+	//filtered frame buffers that are no longer in use and can be written over.
+	private final BlockingQueue<Mat> filteredBuffers = new ArrayBlockingQueue<Mat>(FILTERED_BUFFERS);
+	private static final int FILTERED_BUFFERS = 16;	//the maximum number of spare filtered frame buffers kept.
+	
+	//the default number of frames that can be waiting between stages when the processing is pipelined.
+	private static final int DEFAULT_PIPELINE_QUEUE_SIZE = 4;
+	
 	/**
 	 * Constructor for ProcessVideo with automatic template extraction.
 	 */
@@ -86,119 +137,466 @@ public abstract class ProcessVideo extends Observable {
 	 *  		- update the filter with the actual pen location.
 	 *  - analyse the ballpoint location record to determine if the pen was in pen-up or pen-down state.
 	 *  - carry out post-processing of the strokes (NOT YET IMPLEMENTED).
+	 *  
+	 * If pipelined processing has been turned on (see setPipelined()), the frames are decoded, tracked and 
+	 * have their ballpoint located on separate threads, otherwise all the work is done on the calling thread.
 	 */
 	public void startProcessing() {
 		
-		//extract the first frame from the input, process it and find the best template match location.  
-		//Indicate the location with a green rectangle on the source image.
-		img = getFrame();
-		setROI(new Coord(0,0));
-		filteredImg = ProcessImage.filterColour(img, ProcessImage.BLACK_LOW_HSV, ProcessImage.BLACK_HIGH_HSV);
-		TempMatchOutput initialMatch = pl.findTemplate(filteredImg);
+		beginProcessing(nextFrame());
+		
+		//loop through all the frames.
+		if(pipelineQueueSize>0) {
+			pipeline = new FramePipeline(this, pipelineQueueSize);
+			pipeline.run();
+			if(printSummary) {
+				pipeline.printStageSummary();
+			}
+		} else {
+			while(frameAvailable()) {
+				processFrame(nextFrame());
+			}
+		}
+		
+		finishProcessing();
+		
+	}
+	
+	/**
+	 * Method to start processing the input from its first frame: the template is found in the whole frame
+	 * and the filter is initialised with its location.
+	 * 
+	 * @param first - the record of the first frame of the input.
+	 */
+	void beginProcessing(FrameRecord first) {
+		
+		//process the first frame and find the best template match location.  Indicate the location with a 
+		//green rectangle on the source image.
+		long start = System.nanoTime();
+		img = first.getImg();
+		lastMeasuredFrame = first.getFrameNum();
+		roi = setROI(img, new Coord(0,0), SEARCH_SIZE, SEARCH_SIZE, new Coord(0,0));
+		filteredImg = filterFrame(img);
+		long timer = startTimer();
+		TempMatchOutput initialMatch = pl.findTemplateGlobal(filteredImg);
+		stopTimer(ProcessingMetrics.Stage.FIND_TEMPLATE_GLOBAL, timer);
 		ProcessImage.drawGreenRect(img, new Point(initialMatch.getBestMatch().getX(), 
 				initialMatch.getBestMatch().getY()), pl.getTemplate().cols(), pl.getTemplate().rows());
 		
+		//fill in the first frame's record as a whole frame search with nothing predicted, so that the trace
+		//starts at the first frame.
+		first.setROI(roi);
+		first.setFilteredImg(filteredImg);
+		first.setPredictedPos(initialMatch.getBestMatch());
+		first.setGlobalPos(initialMatch.getBestMatch());
+		first.setMatchError(initialMatch.getError());
+		first.setGlobalSearch(true);
+		first.setTrackNanos(System.nanoTime() - start);
+		if(traceWriter!=null) {
+			traceWriter.append(first);
+		}
+		
 		//initialise the filter with the initial location.
 		filter = new KalmanFilter(initialMatch.getBestMatch(), 1.0, 0.5, 1.5);
+		framesTracked = 0;
+		globalSearches = 0;
+		globalSearchesAvoided = 0;
+		framesSkipped = 0;
+		consecutiveSkips = 0;
 		
-		//loop through all the frames.
-		while(frameAvailable()) {
-			//update the GUI.
-			setChanged();
-	    	notifyObservers();
-	    	
-	    	//predict the next location of the template.
-	    	Coord predictedPos = filter.kalmanFilterPredict();
-	    	
-	    	//get the next frame and process it.
-			img = getFrame();
-			filteredImg = ProcessImage.filterColour(img, ProcessImage.BLACK_LOW_HSV, ProcessImage.BLACK_HIGH_HSV);
-			
-			//find the template in the ROI around the predicted position.
-			Coord roiPos = setROI(predictedPos);
-			TempMatchOutput localMatch = pl.findTemplate(ProcessImage.filterColour(roi, 
-					ProcessImage.BLACK_LOW_HSV, ProcessImage.BLACK_HIGH_HSV));
-			Coord globalPos = new Coord(roiPos.getX() + localMatch.getBestMatch().getX(), 
-					roiPos.getY() + localMatch.getBestMatch().getY());
-			
-			Coord bPoint = null;
-			//if the template match error is too high, search again for the template within the whole image:
-			if(localMatch.getError()>errorThreshold) {
-				globalPos = pl.findTemplate(filteredImg).getBestMatch();
-			} else {
-			//otherwise, find the 'ballpoint' of the pen within the region of interest:
-				bPoint = bpl.findBallpoint(img.submat(globalPos.getY(), globalPos.getY()+pl.getTemplate().rows(), globalPos.getX(), globalPos.getX()+pl.getTemplate().cols()));
-				if(bPoint!=null) {
-					bPoint.setX(bPoint.getX() + globalPos.getX());
-					bPoint.setY(bPoint.getY() + globalPos.getY());
-					//record the ballpoint location as a Stroke. (All Strokes are initially assumed to be pen-up
-					//and the full record is process later for pen-down strokes).
-					sc.addStroke(new Stroke(bPoint, true));
-				}
+		//update the GUI.
+		notifyListeners(first.getFrameNum(), null, false);
+		
+	}
+	
+	/**
+	 * Method to carry out all the processing of one frame after the first: tracking the template, finding
+	 * the ballpoint and updating the GUI.
+	 * Frames must be passed to this method in order.
+	 * 
+	 * @param rec - the record of the frame.
+	 */
+	void processFrame(FrameRecord rec) {
+		trackFrame(rec);
+		locateBallpoint(rec);
+		completeFrame(rec);
+	}
+	
+	/**
+	 * Method to finish processing once the input has ended: prints out the totals for the run and draws 
+	 * the recorded strokes on the final frame.
+	 */
+	void finishProcessing() {
+		
+		if(printSummary) {
+			System.out.println("Frames tracked: " + framesTracked + ", whole frame searches: " + globalSearches);
+			if(adaptiveSigmas>0) {
+				System.out.println("Whole frame searches avoided by the adaptive ROI: " + globalSearchesAvoided);
+			}
+			if(maxLagMillis>0) {
+				System.out.println("Frames skipped to keep up with real time: " + framesSkipped);
 			}
-			//indicate the template location with a green rectangle on the source image.
-			ProcessImage.drawGreenRect(img, new Point(globalPos.getX(), globalPos.getY()), 
-					pl.getTemplate().cols(), pl.getTemplate().rows());
-			
-			//update the filter with the actual template location.
-			filter.kalmanFilterMeasure(globalPos);
-			
-			//print out a summary for this frame.
-			printSummary(predictedPos, globalPos, localMatch.getError(), bPoint);
 		}
 		
 		//determine the pen-down strokes and draw them on the final frame.
 //		sc.analyseRecord(img);
 		sc.drawStrokes(img);
 	    
-		setChanged();
-		notifyObservers();
+		notifyListeners(getFrameNum(), null, true);
 		
 	}
 	
+	/**
+	 * Method to find the template in a frame.  The location of the template is predicted using the filter
+	 * and then searched for in the region of interest around the predicted position.  If the template match
+	 * error is too high, the whole frame is searched instead.  The filter is then updated with the actual 
+	 * template location.
+	 * Frames must be passed to this method in order.
+	 * 
+	 * @param rec - the record of the frame to track.  The predicted position, ROI, match location and 
+	 * error are filled in.
+	 */
+	void trackFrame(FrameRecord rec) {
+		
+		long start = System.nanoTime();
+		
+		//predict the location of the template, from the last frame in which it was matched.
+		Mat frame = rec.getImg();
+		int dt = Math.max(1, rec.getFrameNum() - lastMeasuredFrame);
+		long timer = startTimer();
+		Coord predictedPos = filter.kalmanFilterPredict(dt);
+		stopTimer(ProcessingMetrics.Stage.KALMAN_PREDICT, timer);
+		rec.setPredictedPos(predictedPos);
+		
+		//if the processing has fallen behind real time, use the prediction without matching the template.  
+		//The filter is not updated, so the next frame is predicted from the last matched frame.
+		if(maxLagMillis>0 && consecutiveSkips<MAX_CONSECUTIVE_SKIPS 
+				&& System.nanoTime()/1000000 - rec.getTimestamp() > maxLagMillis) {
+			rec.setROI(setROI(frame, predictedPos, SEARCH_SIZE, SEARCH_SIZE, new Coord(0,0)));
+			rec.setGlobalPos(predictedPos);
+			rec.setSkipped(true);
+			consecutiveSkips++;
+			framesSkipped++;
+			if(metrics!=null) {
+				metrics.countSkippedFrame();
+			}
+			rec.setTrackNanos(System.nanoTime() - start);
+			return;
+		}
+		consecutiveSkips = 0;
+		
+		//size the ROI, either fixed or from how uncertain the prediction is.
+		int searchWidth = SEARCH_SIZE;
+		int searchHeight = SEARCH_SIZE;
+		if(adaptiveSigmas>0) {
+			searchWidth = clampSearchSize(adaptiveSigmas * filter.getPredictedSigmaX());
+			searchHeight = clampSearchSize(adaptiveSigmas * filter.getPredictedSigmaY());
+		}
+		
+		//find the template in the ROI around the predicted position.  Only the ROI is filtered - the whole
+		//frame is only filtered if it has to be searched.
+		Coord roiPos = new Coord(0,0);
+		Mat frameROI = setROI(frame, predictedPos, searchWidth, searchHeight, roiPos);
+		rec.setROI(frameROI);
+		Mat filteredROI = ImageWorkspace.get().getMat("ProcessVideo.filteredROI");
+		timer = startTimer();
+		ProcessImage.filterColour(frameROI, ProcessImage.BLACK_LOW_HSV, ProcessImage.BLACK_HIGH_HSV, filteredROI);
+		timer = stopTimer(ProcessingMetrics.Stage.FILTER_COLOUR, timer);
+		TempMatchOutput localMatch = pl.findTemplateNear(filteredROI, predictedPos.getX()-roiPos.getX(), 
+				predictedPos.getY()-roiPos.getY());
+		stopTimer(ProcessingMetrics.Stage.FIND_TEMPLATE_LOCAL, timer);
+		rec.setMatchError(localMatch.getError());
+		rec.setCandidatesEvaluated(pl.getCandidatesEvaluated());
+		rec.setPixelsEvaluated(pl.getPixelsEvaluated());
+		Coord globalPos = new Coord(roiPos.getX() + localMatch.getBestMatch().getX(), 
+				roiPos.getY() + localMatch.getBestMatch().getY());
+		
+		//if the template match error is too high, search again for the template within the whole image:
+		if(localMatch.getError()>pl.convertErrorThreshold(errorThreshold)) {
+			Mat filtered = filterFrame(frame);
+			rec.setFilteredImg(filtered);
+			timer = startTimer();
+			globalPos = pl.findTemplateGlobal(filtered).getBestMatch();
+			stopTimer(ProcessingMetrics.Stage.FIND_TEMPLATE_GLOBAL, timer);
+			rec.setGlobalSearch(true);
+			globalSearches++;
+			if(metrics!=null) {
+				metrics.countGlobalSearch();
+			}
+		} else if(Math.abs(globalPos.getX()-predictedPos.getX()) > SEARCH_SIZE 
+				|| Math.abs(globalPos.getY()-predictedPos.getY()) > SEARCH_SIZE) {
+			//the template was found outside of the fixed-size ROI, so would have needed a global search.
+			globalSearchesAvoided++;
+		}
+		rec.setGlobalPos(globalPos);
+		framesTracked++;
+		
+		//update the filter with the actual template location.
+		timer = startTimer();
+		filter.kalmanFilterMeasure(globalPos);
+		stopTimer(ProcessingMetrics.Stage.KALMAN_MEASURE, timer);
+		lastMeasuredFrame = rec.getFrameNum();
+		rec.setTrackNanos(System.nanoTime() - start);
+		
+	}
 	
 	/**
-	 * Method to extract the region of interest based on the specified central coordinate and the class-wide
-	 * search size.  
+	 * Method to find the 'ballpoint' of the pen within the matched template location of a tracked frame, 
+	 * and record it as a Stroke.  Nothing is done if the whole frame had to be searched for the template, or
+	 * the frame was skipped.
+	 * Frames must be passed to this method in order.
 	 * 
+	 * @param rec - the record of the tracked frame.  The ballpoint is filled in if it is found.
+	 */
+	void locateBallpoint(FrameRecord rec) {
+		
+		long start = System.nanoTime();
+		Mat frame = rec.getImg();
+		Coord globalPos = rec.getGlobalPos();
+		
+		if(!rec.isGlobalSearch() && !rec.isSkipped()) {
+			long timer = startTimer();
+			Coord bPoint = bpl.findBallpoint(frame.submat(globalPos.getY(), globalPos.getY()+pl.getTemplate().rows(), globalPos.getX(), globalPos.getX()+pl.getTemplate().cols()));
+			stopTimer(ProcessingMetrics.Stage.FIND_BALLPOINT, timer);
+			if(bPoint==null && metrics!=null) {
+				metrics.countBallpointMiss();
+			}
+			if(bPoint!=null) {
+				bPoint.setX(bPoint.getX() + globalPos.getX());
+				bPoint.setY(bPoint.getY() + globalPos.getY());
+				//record the ballpoint location as a Stroke. (All Strokes are initially assumed to be pen-up
+				//and the full record is process later for pen-down strokes).
+				sc.addStroke(new Stroke(bPoint, true, rec.getFrameNum()));
+			}
+			rec.setBPoint(bPoint);
+		}
+		
+		//indicate the template location with a green rectangle on the source image.
+		ProcessImage.drawGreenRect(frame, new Point(globalPos.getX(), globalPos.getY()), 
+				pl.getTemplate().cols(), pl.getTemplate().rows());
+		rec.setBallpointNanos(System.nanoTime() - start);
+		
+	}
+	
+	/**
+	 * Method to make a fully processed frame the current frame, record its summary and update the GUI.
+	 * 
+	 * @param rec - the record of the processed frame.
+	 */
+	void completeFrame(FrameRecord rec) {
+		
+		//the previous frame is no longer needed once this one replaces it.
+		if(img!=null && img!=rec.getImg()) {
+			releaseFrame(img);
+		}
+		if(filteredImg!=null && filteredImg!=rec.getFilteredImg()) {
+			filteredBuffers.offer(filteredImg);
+		}
+		img = rec.getImg();
+		roi = rec.getROI();
+		filteredImg = rec.getFilteredImg();
+		
+		if(metrics!=null) {
+			metrics.countFrame();
+		}
+		
+		//record a summary for this frame, in the trace if there is one, otherwise on the console.
+		if(traceWriter!=null) {
+			traceWriter.append(rec);
+		} else if(printSummary) {
+			printSummary(rec);
+		}
+		
+		//update the GUI.
+		notifyListeners(rec.getFrameNum(), rec.getBPoint(), false);
+		
+	}
+	
+	
+	/**
+	 * Method to send a snapshot of the current frame to the listeners.  Nothing is done if there are no 
+	 * listeners, or they are not ready for another frame yet.
+	 * 
+	 * @param frameNum - the number of the current frame.
+	 * @param bPoint - the ballpoint location found in the current frame (null if none).
+	 * @param last - whether this is the final update of the run (which is always sent).
+	 */
+	private void notifyListeners(int frameNum, Coord bPoint, boolean last) {
+		long timer = startTimer();
+		if(dispatcher.wantsSnapshot(last)) {
+			dispatcher.publish(new FrameSnapshot(frameNum, img, roi, filteredImg, bPoint, last));
+		}
+		stopTimer(ProcessingMetrics.Stage.LISTENER_NOTIFY, timer);
+	}
+	
+	/**
+	 * Method to start timing a stage, if metrics are being recorded.
+	 * 
+	 * @return the start time in nanoseconds (0 if metrics are not being recorded).
+	 */
+	private long startTimer() {
+		return (metrics!=null) ? System.nanoTime() : 0;
+	}
+	
+	/**
+	 * Method to record the time taken by a stage, if metrics are being recorded.
+	 * 
+	 * @param stage - the stage timed.
+	 * @param start - the start time returned by startTimer().
+	 * @return the time now, so that the next stage can be timed from it.
+	 */
+	private long stopTimer(ProcessingMetrics.Stage stage, long start) {
+		if(metrics==null) {
+			return 0;
+		}
+		long now = System.nanoTime();
+		metrics.record(stage, now - start);
+		return now;
+	}
+	
+	/**
+	 * Method to filter a whole frame to leave just the colour of the pen.  The filtered frame may be passed
+	 * on with the frame's record, so it is written into a recycled buffer rather than the workspace.
+	 * 
+	 * @param frame - the frame to filter.
+	 * @return the filtered frame.
+	 */
+	private Mat filterFrame(Mat frame) {
+		Mat filtered = filteredBuffers.poll();
+		if(filtered==null) {
+			filtered = new Mat();
+			ProcessingMetrics.countMatAllocation();
+		}
+		long timer = startTimer();
+		ProcessImage.filterColour(frame, ProcessImage.BLACK_LOW_HSV, ProcessImage.BLACK_HIGH_HSV, filtered);
+		stopTimer(ProcessingMetrics.Stage.FILTER_COLOUR, timer);
+		return filtered;
+	}
+	
+	/**
+	 * Method to work out the search size in one direction from the standard deviation of the prediction.
+	 * 
+	 * @param searchSize - the unclamped search size.
+	 * @return the search size, rounded up and clamped between minSearchSize and maxSearchSize.
+	 */
+	private int clampSearchSize(double searchSize) {
+		return (int) Math.max(minSearchSize, Math.min(maxSearchSize, Math.ceil(searchSize)));
+	}
+	
+	/**
+	 * Method to extract the region of interest based on the specified central coordinate and the search
+	 * size.  The ROI is extended by the search size in each direction beyond the template at the central 
+	 * coordinate.
+	 * 
+	 * @param frame - the frame from which to extract the region of interest.
 	 * @param centre - the coordinates of the centre point of the region of interest
-	 * @return the coordinates of the top left corner of the region of interest.
+	 * @param searchWidth - how far to extend the ROI to the left and right.
+	 * @param searchHeight - how far to extend the ROI above and below.
+	 * @param topLeft - set to the coordinates of the top left corner of the region of interest.
+	 * @return the region of interest.
 	 */
-	private Coord setROI(Coord centre) {
-		int colStart = (centre.getX()-SEARCH_SIZE>0) ? centre.getX()-SEARCH_SIZE : 0;
-		int colEnd = (centre.getX()+SEARCH_SIZE+pl.getTemplate().cols()<img.cols()) ? centre.getX()+SEARCH_SIZE+pl.getTemplate().cols() : img.cols();
-		int rowStart = (centre.getY()-SEARCH_SIZE>0) ? centre.getY()-SEARCH_SIZE : 0;
-		int rowEnd = (centre.getY()+SEARCH_SIZE+pl.getTemplate().rows()<img.rows()) ? centre.getY()+SEARCH_SIZE+pl.getTemplate().rows() : img.rows();
-		roi = img.submat(rowStart, rowEnd, colStart, colEnd);
-		return new Coord(colStart, rowStart);
+	private Mat setROI(Mat frame, Coord centre, int searchWidth, int searchHeight, Coord topLeft) {
+		int colStart = (centre.getX()-searchWidth>0) ? centre.getX()-searchWidth : 0;
+		int colEnd = (centre.getX()+searchWidth+pl.getTemplate().cols()<frame.cols()) ? centre.getX()+searchWidth+pl.getTemplate().cols() : frame.cols();
+		int rowStart = (centre.getY()-searchHeight>0) ? centre.getY()-searchHeight : 0;
+		int rowEnd = (centre.getY()+searchHeight+pl.getTemplate().rows()<frame.rows()) ? centre.getY()+searchHeight+pl.getTemplate().rows() : frame.rows();
+		topLeft.setX(colStart);
+		topLeft.setY(rowStart);
+		return frame.submat(rowStart, rowEnd, colStart, colEnd);
 	}
 	
 	/**
 	 * Method to print out a summary of the current frame's data.
 	 * 
-	 * @param predicted - the predicted position of the template.
-	 * @param actual - the location of the best template match.
-	 * @param error - the error on the template match.
-	 * @param bPoint - the estimated coordinates of the pen ballpoint.
+	 * @param rec - the record of the frame.
 	 */
-	private void printSummary(Coord predicted, Coord actual, double error, Coord bPoint) {
-		System.out.println("Frame " + getFrameNum() + ":");
+	private void printSummary(FrameRecord rec) {
+		Coord predicted = rec.getPredictedPos();
+		Coord actual = rec.getGlobalPos();
+		double error = rec.getMatchError();
+		Coord bPoint = rec.getBPoint();
+		System.out.println("Frame " + rec.getFrameNum() + (rec.isSkipped() ? " (skipped):" : ":"));
 		System.out.println("Predicted position: X = " + predicted.getX() + ", Y = " + predicted.getY());
 		System.out.println("Actual position: X = " + actual.getX() + ", Y = " + actual.getY());
 		System.out.println("Template match error = " + error);
+		System.out.println("Template locations evaluated = " + rec.getCandidatesEvaluated() + " (" 
+				+ rec.getPixelsEvaluated() + " pixels)");
 		if(bPoint!=null) {
 			System.out.println("Estimated ballpoint location: X = " + bPoint.getX() + ", Y = " + bPoint.getY());
 		}
 		System.out.print("\n");
 	}
 	
+	/**
+	 * Method to read the next frame from the video input and start its record.
+	 * 
+	 * @return the record of the next frame, with its frame number and capture time filled in.
+	 */
+	FrameRecord nextFrame() {
+		long start = System.nanoTime();
+		Mat frame = getFrame();
+		if(firstFrameNum<0) {
+			//the frame times of inputs without capture times are counted from the first frame read.
+			processingStart = System.nanoTime() / 1000000;
+			firstFrameNum = getFrameNum();
+		}
+		FrameRecord rec = new FrameRecord(getFrameNum(), frame);
+		rec.setTimestamp(getFrameTimestamp());
+		long decodeNanos = System.nanoTime() - start;
+		rec.setDecodeNanos(decodeNanos);
+		if(metrics!=null) {
+			metrics.record(ProcessingMetrics.Stage.DECODE, decodeNanos);
+		}
+		return rec;
+	}
+	
+	/**
+	 * Method to return the time at which the current frame was captured, in milliseconds on the
+	 * System.nanoTime() clock.  By default the input is taken to run at the nominal frame rate (see 
+	 * setFrameSkipping()) from the time processing started.  Live inputs override this with the actual 
+	 * capture time.
+	 * 
+	 * @return the capture time of the current frame.
+	 */
+	public long getFrameTimestamp() {
+		return processingStart + Math.round((getFrameNum() - firstFrameNum) * 1000 / nominalFrameRate);
+	}
+	
 	/**
 	 * Method to return the next frame from the video input.
+	 * Inputs that reuse their frame buffers expect each frame to be handed back with releaseFrame().
 	 * 
 	 * @return a Mat of the next frame of the video.
 	 */
 	public abstract Mat getFrame();
 	
+	/**
+	 * Method to hand back a frame obtained from getFrame() once it is no longer needed, so that the input
+	 * can reuse its memory.  The default implementation does nothing.
+	 * 
+	 * @param frame - the frame that is finished with.
+	 */
+	public void releaseFrame(Mat frame) {
+	}
+	
+	/**
+	 * Method to release the native resources held by the video input (e.g. the decoder of a video file) 
+	 * once processing has finished.  No more frames can be read afterwards.  The default implementation 
+	 * does nothing.
+	 */
+	public void closeInput() {
+	}
+	
+	/**
+	 * Method to return the number of frames the input itself has dropped, e.g. because newer frames arrived
+	 * before they were read.  The default implementation returns 0.
+	 * 
+	 * @return the number of frames dropped by the input.
+	 */
+	public long getDroppedFrames() {
+		return 0;
+	}
+	
 	/**
 	 * Method to check whether the video input has ended or if there is another frame available.
 	 * 
@@ -213,6 +611,227 @@ public abstract class ProcessVideo extends Observable {
 	 */
 	public abstract int getFrameNum();
 	
+	/**
+	 * Method to turn pipelined processing on or off.  When pipelined, decoding, template tracking and 
+	 * ballpoint location run concurrently on separate threads so that more than one core can be used.  The
+	 * frames are still tracked and recorded in order.  Must be called before startProcessing().
+	 * 
+	 * @param pipelined - true to pipeline the processing, false to do all the work on the calling thread.
+	 */
+	public void setPipelined(boolean pipelined) {
+		setPipelined(pipelined ? DEFAULT_PIPELINE_QUEUE_SIZE : 0);
+	}
+	
+	/**
+	 * Method to turn on pipelined processing with the specified number of frames allowed to wait between
+	 * stages.  A larger queue smooths out variation in the time each stage takes, at the cost of memory.
+	 * 
+	 * @param queueSize - the number of frames that can wait between stages (0 turns pipelining off).
+	 */
+	public void setPipelined(int queueSize) {
+		if(queueSize<0) {
+			throw new IllegalArgumentException("Pipeline queue size cannot be negative.");
+		}
+		pipelineQueueSize = queueSize;
+	}
+	
+	/**
+	 * Method to turn on skipping frames when the processing falls behind real time.  A frame which was 
+	 * captured more than maxLagMillis before it is tracked only has the template position predicted by the
+	 * filter: the template is not matched and the ballpoint is not looked for.  At most a few frames are
+	 * skipped in a row, and the filter predicts across the skipped frames, so the template is not lost.
+	 * Must be called before startProcessing().
+	 * 
+	 * @param frameRate - the frame rate the input is taken to run at, for inputs which do not record the
+	 * time each frame was captured (video files and jpgs).
+	 * @param maxLagMillis - how far behind real time the processing may fall before frames are skipped (0 
+	 * turns skipping off).
+	 */
+	public void setFrameSkipping(double frameRate, long maxLagMillis) {
+		if(frameRate<=0 || maxLagMillis<0) {
+			throw new IllegalArgumentException("Invalid frame skipping settings.");
+		}
+		nominalFrameRate = frameRate;
+		this.maxLagMillis = maxLagMillis;
+	}
+	
+	/**
+	 * getter for the number of frames skipped in the most recent run to keep up with real time.
+	 * 
+	 * @return the number of frames skipped.
+	 */
+	public int getFramesSkipped() {
+		return framesSkipped;
+	}
+	
+	/**
+	 * Method to size the region of interest from the filter's uncertainty in the predicted position rather
+	 * than using a fixed size.  The ROI is extended beyond the template by the specified number of standard 
+	 * deviations of the predicted x and y positions (so it need not be square), clamped between the minimum
+	 * and maximum sizes.  A small ROI means less matching work while the pen is moving predictably, while a 
+	 * larger ROI when the prediction is uncertain avoids having to search the whole frame.
+	 * 
+	 * @param sigmas - the number of standard deviations to search (0 turns adaptive sizing off).
+	 * @param minSize - the smallest distance to extend the ROI in each direction.
+	 * @param maxSize - the largest distance to extend the ROI in each direction.
+	 */
+	public void setAdaptiveSearch(double sigmas, int minSize, int maxSize) {
+		if(sigmas<0 || minSize<0 || maxSize<minSize) {
+			throw new IllegalArgumentException("Invalid adaptive search settings.");
+		}
+		adaptiveSigmas = sigmas;
+		minSearchSize = minSize;
+		maxSearchSize = maxSize;
+	}
+	
+	/**
+	 * getter for the number of frames in the most recent run in which the template was found within the 
+	 * adaptive ROI, but outside of where the fixed-size ROI would have looked (so without adaptive sizing 
+	 * the whole frame would have been searched).
+	 * 
+	 * @return the number of whole frame searches avoided.
+	 */
+	public int getGlobalSearchesAvoided() {
+		return globalSearchesAvoided;
+	}
+	
+	/**
+	 * Method to turn the summary printed out for each frame, and the totals printed out at the end of the 
+	 * run, on or off.  They are on by default.
+	 * 
+	 * @param printSummary - true to print out the summaries, false to process silently.
+	 */
+	public void setPrintSummary(boolean printSummary) {
+		this.printSummary = printSummary;
+	}
+	
+	/**
+	 * Method to write a binary trace record of each frame (see TraceRecord) instead of printing out its 
+	 * summary on the console.  The caller closes the writer once processing has finished.
+	 * 
+	 * @param traceWriter - the writer to use (null to go back to the console summaries).
+	 */
+	public void setTraceWriter(TraceWriter traceWriter) {
+		this.traceWriter = traceWriter;
+	}
+	
+	/**
+	 * Method to start recording the latency of each processing stage, and counters such as the number of 
+	 * whole frame searches, and to make them available through JMX (see ProcessingMetrics).  Should be 
+	 * called before startProcessing().
+	 * 
+	 * @param name - the name to register the metrics under (e.g. the name of the session).
+	 * @return the metrics.
+	 * @throws IllegalArgumentException - if metrics are already registered under the name.
+	 */
+	public ProcessingMetrics enableMetrics(String name) {
+		disableMetrics();
+		ProcessingMetrics m = new ProcessingMetrics(this);
+		m.register(name);
+		metrics = m;
+		return m;
+	}
+	
+	/**
+	 * Method to stop recording metrics and remove them from JMX.
+	 */
+	public void disableMetrics() {
+		if(metrics!=null) {
+			metrics.unregister();
+			metrics = null;
+		}
+	}
+	
+	/**
+	 * getter for the metrics being recorded.
+	 * 
+	 * @return the metrics, or null if they are not enabled.
+	 */
+	public ProcessingMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * getter for the number of frames in the most recent run in which the template was matched (i.e. not 
+	 * counting the first frame or any skipped frames).
+	 * 
+	 * @return the number of frames tracked.
+	 */
+	public int getFramesTracked() {
+		return framesTracked;
+	}
+	
+	/**
+	 * getter for the number of frames in the most recent run in which the whole frame had to be searched.
+	 * 
+	 * @return the number of whole frame searches.
+	 */
+	public int getGlobalSearches() {
+		return globalSearches;
+	}
+	
+	/**
+	 * Method to change how the ballpoint of the pen is found within the matched template (by default a 
+	 * BallpointLocator is used).  Must be called before startProcessing().
+	 * 
+	 * @param detector - the ballpoint detector to use.
+	 */
+	public void setBallpointDetector(BallpointDetector detector) {
+		detector.setDebugSink(debugSink);
+		bpl = detector;
+	}
+	
+	/**
+	 * Method to register a listener to be sent snapshots of the processed frames (e.g. to update the GUI).
+	 * See FrameListener for when and how often the listeners are called.
+	 * 
+	 * @param listener - the listener to add.
+	 */
+	public void addFrameListener(FrameListener listener) {
+		dispatcher.addListener(listener);
+	}
+	
+	/**
+	 * Method to stop sending snapshots to a listener.
+	 * 
+	 * @param listener - the listener to remove.
+	 */
+	public void removeFrameListener(FrameListener listener) {
+		dispatcher.removeListener(listener);
+	}
+	
+	/**
+	 * Method to set the most times per second the listeners are sent a snapshot.  Frames processed in 
+	 * between are not sent.
+	 * 
+	 * @param maxRate - the maximum number of snapshots per second.
+	 */
+	public void setListenerRate(double maxRate) {
+		dispatcher.setMaxRate(maxRate);
+	}
+	
+	/**
+	 * Method to send intermediate images from the ballpoint location and stroke classification to a debug 
+	 * sink (e.g. an AsyncImageWriter).  Debug output is off by default.
+	 * 
+	 * @param debugSink - the sink to use (null to turn debug output off).
+	 */
+	public void setDebugSink(DebugFrameSink debugSink) {
+		this.debugSink = debugSink;
+		bpl.setDebugSink(debugSink);
+		sc.setDebugSink(debugSink);
+	}
+	
+	/**
+	 * getter for the throughput statistics of each stage of the most recent pipelined run.
+	 * 
+	 * @return the statistics for the decode, track and ballpoint stages, or null if the processing has not 
+	 * been pipelined.
+	 */
+	public StageStats[] getStageStats() {
+		return (pipeline!=null) ? pipeline.getStageStats() : null;
+	}
+	
 	/**
 	 * getter for the PenLocator object.
 	 * 
@@ -222,6 +841,15 @@ public abstract class ProcessVideo extends Observable {
 		return pl;
 	}
 	
+	/**
+	 * getter for the StrokeClassifier object, which holds the record of the strokes found so far.
+	 * 
+	 * @return sc - the StrokeClassifier object.
+	 */
+	public StrokeClassifier getSC() {
+		return sc;
+	}
+	
 	/**
 	 * getter for the Mat image representing the current frame of the video.
 	 * 
@@ -242,10 +870,15 @@ public abstract class ProcessVideo extends Observable {
 	
 	/**
 	 * getter method for the filtered/processed version of the current frame image.
+	 * While the template is being tracked, only the region of interest of each frame is filtered, so the 
+	 * whole frame is filtered here the first time it is asked for.
 	 * 
 	 * @return a Mat of the filtered/processed version of the current frame image.
 	 */
 	public Mat getFilteredImg() {
+		if(filteredImg==null && img!=null) {
+			filteredImg = filterFrame(img);
+		}
 		return filteredImg;
 	}
 	
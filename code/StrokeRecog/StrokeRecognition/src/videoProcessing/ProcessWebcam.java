@@ -8,12 +8,19 @@ import org.opencv.highgui.VideoCapture;
  * This implementation allows the input from a webcam.
  * 
  * @author Simon Dicken (Student ID: 1378818)
- * @version 2014-07-16
+ * @version 2014-08-06
  */
 public class ProcessWebcam extends ProcessVideo {
 
 	private VideoCapture camera;	//the object through which access to the webcam is obtained.
-	private int frameNum;
+	private int frameNum;	//the frame number of the current frame.
+	private long captureTime;	//the time the current frame was captured (milliseconds, System.nanoTime() clock).
+	private long firstCaptureTime;	//the time the first frame was captured.
+	private double framePeriod;	//the time between frames from the camera (milliseconds).
+	private LatestFrameCapture capture;	//the object reading frames in the background (null if read on demand).
+	
+	private static final int FPS_PROPERTY = 5;	//the video capture property code for the frame rate.
+	private static final double DEFAULT_FPS = 30;	//the frame rate assumed if the camera does not report one.
 	
 	/**
 	 * Constructor for ProcessWebcam objects with automatic template extraction.
@@ -47,16 +54,87 @@ public class ProcessWebcam extends ProcessVideo {
 	    if(!camera.isOpened()){
 	        throw new VideoInitialisationException("Specified webcam number could not be found.");
 	    }
-	    frameNum=1;
+	    frameNum=0;
+	    double fps = camera.get(FPS_PROPERTY);
+	    framePeriod = 1000 / ((fps>0) ? fps : DEFAULT_FPS);
 	}
 
+	/**
+	 * Method to read the current image from the webcam.  If background capture has been started, this is
+	 * the newest frame read by the capture thread and the frame number is its position in the sequence of 
+	 * frames read.  Otherwise, the frame is read now and the frame number is worked out from the time it 
+	 * was captured.  Either way, if frames were missed between reads (e.g. because processing was slow) the 
+	 * frame number jumps by the number of frames missed.
+	 */
 	@Override
 	public Mat getFrame() {
+		if(capture!=null) {
+			Mat frame = capture.take();
+			frameNum = (int) capture.getSequence();
+			captureTime = capture.getCaptureTime();
+			return frame;
+		}
 		Mat frame = new Mat();
+		ProcessingMetrics.countMatAllocation();
 		camera.read(frame);
+		captureTime = System.nanoTime() / 1000000;
+		if(frameNum==0) {
+			firstCaptureTime = captureTime;
+			frameNum = 1;
+		} else {
+			int elapsedFrames = (int) Math.round((captureTime - firstCaptureTime) / framePeriod);
+			frameNum = Math.max(frameNum + 1, 1 + elapsedFrames);
+		}
 		return frame;
 	}
+	
+	@Override
+	public long getFrameTimestamp() {
+		return captureTime;
+	}
 
+	@Override
+	public void releaseFrame(Mat frame) {
+		if(capture!=null) {
+			capture.release(frame);
+		}
+	}
+	
+	/**
+	 * Method to start reading frames from the webcam continuously on a background thread, so that 
+	 * getFrame() always returns the newest frame rather than the next one in the driver's buffer.  Frames
+	 * the processing does not keep up with are dropped.  Must be called before any frames have been read.
+	 * 
+	 * @param buffers - the number of frame buffers to use (at least 3, plus one for each frame that can be 
+	 * held in a pipeline at once).
+	 */
+	public void startCapture(int buffers) {
+		if(capture!=null) {
+			throw new IllegalStateException("Capture has already been started.");
+		}
+		capture = new LatestFrameCapture(camera, buffers);
+	}
+	
+	/**
+	 * Method to stop reading frames in the background.
+	 */
+	public void stopCapture() {
+		if(capture!=null) {
+			capture.stop();
+		}
+	}
+	
+	/**
+	 * getter for the number of frames read by the background capture which were dropped because a newer
+	 * frame arrived before they were processed.
+	 * 
+	 * @return the number of frames dropped (0 if background capture is not running).
+	 */
+	@Override
+	public long getDroppedFrames() {
+		return (capture!=null) ? capture.getDropped() : 0;
+	}
+	
 	@Override
 	public boolean frameAvailable() {
 		return camera.isOpened();
@@ -68,11 +146,21 @@ public class ProcessWebcam extends ProcessVideo {
 	}
 	
 	/**
-	 * Method to close the camera resource.
+	 * Method to close the camera resource.  Any background capture is stopped first, so the camera is not
+	 * released while the capture thread is reading from it.
+	 * 
+	 * @throws IllegalStateException - if interrupted before the capture had stopped (the camera is then 
+	 * left open).
 	 */
 	public void relaseCamera() {
+		stopCapture();
 		camera.release();
 	}
 	
+	@Override
+	public void closeInput() {
+		relaseCamera();
+	}
+	
 	
 }
@@ -0,0 +1,238 @@
+package videoProcessing;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Class to record where the time goes while a ProcessVideo object processes its input: a LatencyHistogram
+ * for each timed stage, and counters for the events that are expensive or indicate problems.  Turned on
+ * with ProcessVideo.enableMetrics(), which also registers the metrics as a JMX MBean named
+ * "strokeRecognition:type=ProcessingMetrics,name=<session name>" so they can be watched and reset while
+ * the processing runs.
+ *
+ * Timing a stage costs two calls to System.nanoTime() and a few atomic increments, which is small next to
+ * the work done for each frame.  When the metrics are not enabled, nothing is timed.
+ *
+ * @author Simon Dicken (Student ID: 1378818)
+ * @version 2014-08-13
+ */
+public class ProcessingMetrics implements ProcessingMetricsMXBean {
+
+	/**
+	 * The processing stages which are timed.
+	 */
+	public enum Stage {
+		DECODE,	//reading the frame from the input.
+		FILTER_COLOUR,	//colour filtering of the ROI or the whole frame.
+		FIND_TEMPLATE_LOCAL,	//matching the template within the ROI.
+		FIND_TEMPLATE_GLOBAL,	//searching the whole frame for the template.
+		FIND_BALLPOINT,	//finding the ballpoint within the matched template.
+		KALMAN_PREDICT,	//predicting the template position with the Kalman filter.
+		KALMAN_MEASURE,	//updating the Kalman filter with the matched position.
+		LISTENER_NOTIFY	//deciding whether to, and taking, a snapshot for the frame listeners.
+	}
+
+	//the number of Mats allocated on the per-frame paths, across the whole program.
+	private static final AtomicLong MAT_ALLOCATIONS = new AtomicLong();
+
+	private final ProcessVideo pv;	//the video whose processing is measured.
+	private final LatencyHistogram[] stages = new LatencyHistogram[Stage.values().length];
+	private final AtomicLong framesProcessed = new AtomicLong();
+	private final AtomicLong globalSearches = new AtomicLong();
+	private final AtomicLong ballpointMisses = new AtomicLong();
+	private final AtomicLong framesSkipped = new AtomicLong();
+	private volatile long inputDroppedAtReset;	//the number of frames the input had dropped at the last reset.
+	private ObjectName objectName;	//the name the MBean is registered under (null if not registered).
+
+	/**
+	 * Constructor for ProcessingMetrics.
+	 *
+	 * @param pv - the video whose processing is measured.
+	 */
+	ProcessingMetrics(ProcessVideo pv) {
+		this.pv = pv;
+		for(int i=0; i<stages.length; i++) {
+			stages[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * Method to register the metrics with the platform MBean server.
+	 *
+	 * @param sessionName - the name to register the metrics under.
+	 * @throws IllegalArgumentException - if metrics are already registered under the name.
+	 */
+	synchronized void register(String sessionName) {
+		try {
+			ObjectName name = new ObjectName("strokeRecognition:type=ProcessingMetrics,name="
+					+ ObjectName.quote(sessionName));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+			objectName = name;
+		} catch (InstanceAlreadyExistsException e) {
+			throw new IllegalArgumentException("Metrics are already registered for " + sessionName + ".", e);
+		} catch (JMException e) {
+			throw new RuntimeException("Could not register the metrics for " + sessionName + ".", e);
+		}
+	}
+
+	/**
+	 * Method to remove the metrics from the platform MBean server, if they were registered.
+	 */
+	synchronized void unregister() {
+		if(objectName==null) {
+			return;
+		}
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			server.unregisterMBean(objectName);
+		} catch (JMException e) {
+			//already unregistered.
+		}
+		objectName = null;
+	}
+
+	/**
+	 * Method to record the time taken by a stage.
+	 *
+	 * @param stage - the stage.
+	 * @param nanos - the time taken in nanoseconds.
+	 */
+	void record(Stage stage, long nanos) {
+		stages[stage.ordinal()].record(nanos);
+	}
+
+	void countFrame() {
+		framesProcessed.incrementAndGet();
+	}
+
+	void countGlobalSearch() {
+		globalSearches.incrementAndGet();
+	}
+
+	void countBallpointMiss() {
+		ballpointMisses.incrementAndGet();
+	}
+
+	void countSkippedFrame() {
+		framesSkipped.incrementAndGet();
+	}
+
+	/**
+	 * Method to count a Mat allocated on one of the per-frame paths (whether or not metrics are enabled).
+	 */
+	static void countMatAllocation() {
+		MAT_ALLOCATIONS.incrementAndGet();
+	}
+
+	/**
+	 * getter for the histogram of a stage's latencies.
+	 *
+	 * @param stage - the stage.
+	 * @return the histogram (in nanoseconds).
+	 */
+	public LatencyHistogram getHistogram(Stage stage) {
+		return stages[stage.ordinal()];
+	}
+
+	@Override
+	public StageLatency getDecode() {
+		return StageLatency.of(getHistogram(Stage.DECODE));
+	}
+
+	@Override
+	public StageLatency getFilterColour() {
+		return StageLatency.of(getHistogram(Stage.FILTER_COLOUR));
+	}
+
+	@Override
+	public StageLatency getFindTemplateLocal() {
+		return StageLatency.of(getHistogram(Stage.FIND_TEMPLATE_LOCAL));
+	}
+
+	@Override
+	public StageLatency getFindTemplateGlobal() {
+		return StageLatency.of(getHistogram(Stage.FIND_TEMPLATE_GLOBAL));
+	}
+
+	@Override
+	public StageLatency getFindBallpoint() {
+		return StageLatency.of(getHistogram(Stage.FIND_BALLPOINT));
+	}
+
+	@Override
+	public StageLatency getKalmanPredict() {
+		return StageLatency.of(getHistogram(Stage.KALMAN_PREDICT));
+	}
+
+	@Override
+	public StageLatency getKalmanMeasure() {
+		return StageLatency.of(getHistogram(Stage.KALMAN_MEASURE));
+	}
+
+	@Override
+	public StageLatency getListenerNotify() {
+		return StageLatency.of(getHistogram(Stage.LISTENER_NOTIFY));
+	}
+
+	@Override
+	public long getFramesProcessed() {
+		return framesProcessed.get();
+	}
+
+	@Override
+	public long getGlobalSearches() {
+		return globalSearches.get();
+	}
+
+	@Override
+	public long getBallpointMisses() {
+		return ballpointMisses.get();
+	}
+
+	/**
+	 * getter for the number of frames dropped: those skipped to keep up with real time, and those the input
+	 * itself dropped (e.g. webcam frames replaced by newer ones before they were processed).
+	 *
+	 * @return the number of frames dropped since the last reset.
+	 */
+	@Override
+	public long getDroppedFrames() {
+		return framesSkipped.get() + pv.getDroppedFrames() - inputDroppedAtReset;
+	}
+
+	@Override
+	public long getMatAllocations() {
+		return MAT_ALLOCATIONS.get();
+	}
+
+	@Override
+	public void reset() {
+		for(LatencyHistogram h : stages) {
+			h.reset();
+		}
+		framesProcessed.set(0);
+		globalSearches.set(0);
+		ballpointMisses.set(0);
+		framesSkipped.set(0);
+		inputDroppedAtReset = pv.getDroppedFrames();
+	}
+
+	/**
+	 * Method to print out the latencies of each stage and the counters.
+	 */
+	public void printSummary() {
+		System.out.println("Stage latencies:");
+		for(Stage s : Stage.values()) {
+			System.out.println(String.format("  %-20s %s", s, StageLatency.of(getHistogram(s))));
+		}
+		System.out.println("Frames processed: " + getFramesProcessed() + ", whole frame searches: "
+				+ getGlobalSearches() + ", ballpoint misses: " + getBallpointMisses() + ", frames dropped: "
+				+ getDroppedFrames() + ", Mat allocations: " + getMatAllocations());
+	}
+
+}
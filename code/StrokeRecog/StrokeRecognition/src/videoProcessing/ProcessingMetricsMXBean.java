@@ -0,0 +1,44 @@
+package videoProcessing;
+
+/**
+ * Management interface for the ProcessingMetrics of one ProcessVideo object, as seen through JMX (e.g. in
+ * JConsole or VisualVM).  The latencies are in microseconds.
+ *
+ * @author Simon Dicken (Student ID: 1378818)
+ * @version 2014-08-13
+ */
+public interface ProcessingMetricsMXBean {
+
+	public StageLatency getDecode();
+
+	public StageLatency getFilterColour();
+
+	public StageLatency getFindTemplateLocal();
+
+	public StageLatency getFindTemplateGlobal();
+
+	public StageLatency getFindBallpoint();
+
+	public StageLatency getKalmanPredict();
+
+	public StageLatency getKalmanMeasure();
+
+	public StageLatency getListenerNotify();
+
+	public long getFramesProcessed();
+
+	public long getGlobalSearches();
+
+	public long getBallpointMisses();
+
+	public long getDroppedFrames();
+
+	public long getMatAllocations();
+
+	/**
+	 * Method to clear all of the latencies and counters (apart from the Mat allocations, which are counted
+	 * for the whole program).
+	 */
+	public void reset();
+
+}
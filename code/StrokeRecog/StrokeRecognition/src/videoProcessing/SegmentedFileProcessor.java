@@ -0,0 +1,221 @@
+package videoProcessing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import strokeData.Coord;
+import strokeData.Stroke;
+import upDownClassifier.StrokeClassifier;
+
+/**
+ * Class to process a single long video file on several cores by splitting it into segments which are
+ * processed in parallel, each by its own ProcessFile (so each segment seeks to its own start, finds the pen
+ * with a search of the whole frame and has its own Kalman filter).  The stroke records of the segments are
+ * then stitched back together into one record in frame order.
+ *
+ * Each segment after the first starts a number of warm-up frames before the frames it is responsible for,
+ * so that it has found the pen and its filter has settled by the time it reaches them.  The warm-up frames
+ * are also processed by the previous segment, so the warm-up is cut short where the previous segment is 
+ * shorter than it (a segment never overlaps the one two before it).  Within this overlap, the record is handed over from the
+ * previous segment to the next at the first frame in which they found the ballpoint in the same place; if
+ * they never agree, the hand-over is at the end of the overlap.  Either way each frame's stroke comes from
+ * exactly one segment, so nothing is duplicated or missed at the boundaries.
+ *
+ * @author Simon Dicken (Student ID: 1378818)
+ * @version 2014-08-10
+ */
+public class SegmentedFileProcessor {
+
+	//how close (in pixels, in x and y) two segments' ballpoints must be to count as agreeing.
+	private static final int HANDOVER_DISTANCE = 2;
+
+	private final String videoFile;	//the video file to process.
+	private final String template;	//the template image file.
+	private final int segments;	//the number of segments to split the video into.
+	private final int warmupFrames;	//the number of frames each segment overlaps the previous one by.
+
+	//the results of the most recent run.
+	private long[] segmentNanos;	//the time taken to process each segment.
+	private int handoversAgreed;	//the number of boundaries where the segments agreed within the overlap.
+
+	/**
+	 * Constructor for SegmentedFileProcessor.
+	 *
+	 * @param videoFile - the full file path including extension of the video file.
+	 * @param template - the full file path including extension of the image to use as the template.
+	 * @param segments - the number of segments to split the video into.
+	 * @param warmupFrames - the number of frames each segment starts before the frames it is responsible for
+	 * (at least 1, as no stroke is recorded for the first frame a segment processes).
+	 */
+	public SegmentedFileProcessor(String videoFile, String template, int segments, int warmupFrames) {
+		if(segments<1 || warmupFrames<1) {
+			throw new IllegalArgumentException("Invalid segment settings.");
+		}
+		this.videoFile = videoFile;
+		this.template = template;
+		this.segments = segments;
+		this.warmupFrames = warmupFrames;
+	}
+
+	/**
+	 * Method to process the video file.
+	 *
+	 * @param threads - the number of segments to process at once.
+	 * @return a StrokeClassifier holding the stitched stroke record of the whole video.
+	 * @throws RuntimeException - if processing any of the segments failed.
+	 */
+	public StrokeClassifier process(int threads) {
+
+		int first = ProcessFile.FIRST_FRAME_NUM;
+		int last = first + ProcessFile.countFrames(videoFile) - 1;
+		int frames = last - first + 1;
+		int count = Math.max(1, Math.min(segments, frames));
+
+		//segment i is responsible for frames ownStart[i] up to ownStart[i+1]-1, but starts processing at 
+		//overlapStart[i], which is within the previous segment's own frames.
+		final int[] ownStart = new int[count+1];
+		for(int i=0; i<=count; i++) {
+			ownStart[i] = first + (int) ((long) frames * i / count);
+		}
+		int[] overlapStart = new int[count];
+		overlapStart[0] = first;
+		for(int i=1; i<count; i++) {
+			overlapStart[i] = Math.max(ownStart[i-1], ownStart[i] - warmupFrames);
+		}
+
+		segmentNanos = new long[count];
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, count)));
+		List<Future<List<Stroke>>> futures = new ArrayList<Future<List<Stroke>>>();
+		for(int i=0; i<count; i++) {
+			final int seg = i;
+			final int start = overlapStart[i];
+			final int end = ownStart[i+1] - 1;
+			futures.add(pool.submit(new Callable<List<Stroke>>() {
+				@Override
+				public List<Stroke> call() {
+					long t = System.nanoTime();
+					ProcessFile pv = new ProcessFile(videoFile, template, start, end);
+					try {
+						pv.setPrintSummary(false);
+						pv.startProcessing();
+					} finally {
+						pv.closeInput();
+					}
+					segmentNanos[seg] = System.nanoTime() - t;
+					return pv.getSC().getStrokeRecord();
+				}
+			}));
+		}
+		pool.shutdown();
+
+		List<List<Stroke>> records = new ArrayList<List<Stroke>>();
+		try {
+			for(Future<List<Stroke>> f : futures) {
+				records.add(f.get());
+			}
+		} catch (InterruptedException e) {
+			pool.shutdownNow();
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while processing the segments.", e);
+		} catch (ExecutionException e) {
+			pool.shutdownNow();
+			throw new RuntimeException("Processing a segment failed.", e.getCause());
+		}
+
+		return stitch(records, ownStart, overlapStart);
+	}
+
+	/**
+	 * Method to stitch the segments' stroke records together.
+	 *
+	 * @param records - the stroke record of each segment, in order.
+	 * @param ownStart - the first frame each segment is responsible for (with an extra entry for the end).
+	 * @param overlapStart - the first frame each segment processed.
+	 * @return a StrokeClassifier holding the stitched record.
+	 */
+	private StrokeClassifier stitch(List<List<Stroke>> records, int[] ownStart, int[] overlapStart) {
+
+		//handover[i] is the first frame whose stroke is taken from segment i rather than segment i-1.  Each 
+		//overlap lies within the previous segment's own frames, so the handovers are in order and no frame
+		//is taken from more than one segment.
+		int count = records.size();
+		int[] handover = new int[count+1];
+		handover[0] = Integer.MIN_VALUE;
+		handover[count] = Integer.MAX_VALUE;
+		handoversAgreed = 0;
+		for(int i=1; i<count; i++) {
+			handover[i] = findHandover(records.get(i-1), records.get(i), overlapStart[i], ownStart[i]);
+			if(handover[i]<ownStart[i]) {
+				handoversAgreed++;
+			}
+		}
+
+		StrokeClassifier sc = new StrokeClassifier();
+		for(int i=0; i<count; i++) {
+			for(Stroke s : records.get(i)) {
+				if(s.getFrameNum()>=handover[i] && s.getFrameNum()<handover[i+1]) {
+					sc.addStroke(s);
+				}
+			}
+		}
+		return sc;
+	}
+
+	/**
+	 * Method to find the frame at which to hand the record over from one segment to the next.
+	 *
+	 * @param before - the stroke record of the earlier segment.
+	 * @param after - the stroke record of the later segment.
+	 * @param overlapStart - the first frame processed by both segments.
+	 * @param boundary - the first frame the later segment is responsible for (the end of the overlap).
+	 * @return the first frame in the overlap where both segments found the ballpoint in the same place, or
+	 * the boundary if there is none.
+	 */
+	private static int findHandover(List<Stroke> before, List<Stroke> after, int overlapStart, int boundary) {
+		Map<Integer, Coord> earlier = new HashMap<Integer, Coord>();
+		for(Stroke s : before) {
+			if(s.getFrameNum()>=overlapStart) {
+				earlier.put(s.getFrameNum(), s.getLocation());
+			}
+		}
+		for(Stroke s : after) {
+			if(s.getFrameNum()>=boundary) {
+				break;
+			}
+			Coord c = earlier.get(s.getFrameNum());
+			if(c!=null && Math.abs(c.getX() - s.getLocation().getX())<=HANDOVER_DISTANCE
+					&& Math.abs(c.getY() - s.getLocation().getY())<=HANDOVER_DISTANCE) {
+				return s.getFrameNum();
+			}
+		}
+		return boundary;
+	}
+
+	/**
+	 * getter for the time taken to process each segment in the most recent run.
+	 *
+	 * @return the time for each segment in nanoseconds, or null if there has been no run.
+	 */
+	public long[] getSegmentNanos() {
+		return segmentNanos;
+	}
+
+	/**
+	 * getter for the number of segment boundaries in the most recent run at which the two segments found
+	 * the ballpoint in the same place within the overlap.  At the other boundaries the later segment had not
+	 * settled on the same track by the end of the warm-up, so a longer warm-up may be needed.
+	 *
+	 * @return the number of boundaries where the segments agreed.
+	 */
+	public int getHandoversAgreed() {
+		return handoversAgreed;
+	}
+
+}
@@ -0,0 +1,179 @@
+package videoProcessing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class to process many videos at once (e.g. one per connected camera) on a fixed number of threads.
+ * Each video is run as a TrackingSession, whose work is split into short tasks shared out between two
+ * pools:
+ * 	-	the CPU pool, which does the tracking and should have about one thread per core.
+ * 	-	the I/O pool, which reads the frames.  Reading from a live camera blocks until the next frame
+ * 		arrives, so this pool needs enough threads to cover the inputs which are waiting on a read at once,
+ * 		but the threads spend most of their time waiting rather than using a core.
+ *
+ * Adding a session does not add a thread.  The sessions take turns on each pool (each task only handles a
+ * few frames before going to the back of the pool's queue), and each session has its own bounded frame
+ * queue so that a slow session cannot hold up the others or use more memory than its queue allows.
+ *
+ * @author Simon Dicken (Student ID: 1378818)
+ * @version 2014-08-13
+ */
+public class SessionManager {
+
+	//the default number of frames each session can read ahead of its processing.
+	public static final int DEFAULT_QUEUE_SIZE = 4;
+
+	private final ExecutorService cpuPool;	//the threads which track the frames.
+	private final ExecutorService ioPool;	//the threads which read the frames.
+	private final List<TrackingSession> sessions = new CopyOnWriteArrayList<TrackingSession>();
+	private volatile boolean shutdown;	//set once the manager has been shut down.
+	private volatile boolean metricsEnabled;	//whether sessions added record metrics (see ProcessingMetrics).
+
+	/**
+	 * Constructor for SessionManager with one CPU thread per core, and the same number of I/O threads.
+	 */
+	public SessionManager() {
+		this(Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructor for SessionManager.
+	 *
+	 * @param cpuThreads - the number of threads to track the frames on.
+	 * @param ioThreads - the number of threads to read the frames on.
+	 */
+	public SessionManager(int cpuThreads, int ioThreads) {
+		if(cpuThreads<1 || ioThreads<1) {
+			throw new IllegalArgumentException("Each pool needs at least one thread.");
+		}
+		cpuPool = Executors.newFixedThreadPool(cpuThreads, namedDaemons("session-cpu-"));
+		ioPool = Executors.newFixedThreadPool(ioThreads, namedDaemons("session-io-"));
+	}
+
+	/**
+	 * Method to create a factory for daemon threads named with the given prefix and a number.
+	 *
+	 * @param prefix - the start of each thread's name.
+	 * @return the thread factory.
+	 */
+	private static ThreadFactory namedDaemons(final String prefix) {
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, prefix + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	/**
+	 * Method to start processing a video, allowing the default number of frames to be read ahead.
+	 *
+	 * @param name - the name of the session.
+	 * @param pv - the video to process (which must not already be being processed).
+	 * @return the session, which can be used to follow its progress.
+	 */
+	public TrackingSession addSession(String name, ProcessVideo pv) {
+		return addSession(name, pv, DEFAULT_QUEUE_SIZE);
+	}
+
+	/**
+	 * Method to start processing a video.
+	 *
+	 * @param name - the name of the session.
+	 * @param pv - the video to process (which must not already be being processed).
+	 * @param queueSize - the most frames which can be read ahead of the processing.
+	 * @return the session, which can be used to follow its progress.
+	 * @throws IllegalStateException - if the manager has been shut down.
+	 * @throws IllegalArgumentException - if metrics are enabled and another session has the same name.
+	 */
+	public TrackingSession addSession(String name, ProcessVideo pv, int queueSize) {
+		if(shutdown) {
+			throw new IllegalStateException("The session manager has been shut down.");
+		}
+		TrackingSession session = new TrackingSession(name, pv, queueSize, cpuPool, ioPool);
+		if(metricsEnabled) {
+			pv.enableMetrics(name);
+		}
+		sessions.add(session);
+		session.start();
+		return session;
+	}
+
+	/**
+	 * Method to choose whether the sessions added from now on record their stage latencies and counters, 
+	 * each registered with JMX under the session's name (see ProcessVideo.enableMetrics()) until the session
+	 * finishes.  Off by default.
+	 *
+	 * @param enabled - true to record metrics for new sessions.
+	 */
+	public void setMetricsEnabled(boolean enabled) {
+		metricsEnabled = enabled;
+	}
+
+	/**
+	 * getter for the sessions which have been added, in the order they were added.
+	 *
+	 * @return a copy of the list of sessions.
+	 */
+	public List<TrackingSession> getSessions() {
+		return new ArrayList<TrackingSession>(sessions);
+	}
+
+	/**
+	 * Method to wait for every session which has been added to finish.
+	 *
+	 * @param timeout - the longest time to wait in total.
+	 * @param unit - the units of the timeout.
+	 * @return true if every session has finished, false if the timeout ran out first.
+	 * @throws InterruptedException - if interrupted while waiting.
+	 */
+	public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for(TrackingSession s : sessions) {
+			if(!s.awaitCompletion(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Method to cancel any sessions still running and stop the pools once their current tasks are done.
+	 * The sessions' metrics are removed from JMX.  No sessions can be added afterwards.
+	 */
+	public void shutdown() {
+		shutdown = true;
+		for(TrackingSession s : sessions) {
+			s.cancel();
+			//a session's last task may still be running, so remove its metrics now rather than waiting.
+			ProcessingMetrics metrics = s.getProcessVideo().getMetrics();
+			if(metrics!=null) {
+				metrics.unregister();
+			}
+		}
+		cpuPool.shutdown();
+		ioPool.shutdown();
+	}
+
+	/**
+	 * Method to print out the state and statistics of each session.
+	 */
+	public void printSessionSummary() {
+		System.out.println("Sessions:");
+		for(TrackingSession s : sessions) {
+			System.out.println("  " + s);
+		}
+	}
+
+}
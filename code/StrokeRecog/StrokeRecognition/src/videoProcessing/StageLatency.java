@@ -0,0 +1,82 @@
+package videoProcessing;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Class holding a summary of the latencies of one processing stage at a point in time, as reported by the
+ * ProcessingMetrics MBean.  All times are in microseconds.
+ *
+ * @author Simon Dicken (Student ID: 1378818)
+ * @version 2014-08-13
+ */
+public class StageLatency {
+
+	private final long count;	//the number of times the stage was timed.
+	private final double mean;
+	private final double p50;
+	private final double p99;
+	private final double p999;
+	private final double max;
+
+	/**
+	 * Constructor for StageLatency.
+	 *
+	 * @param count - the number of times the stage was timed.
+	 * @param mean - the mean latency.
+	 * @param p50 - the median latency.
+	 * @param p99 - the 99th percentile latency.
+	 * @param p999 - the 99.9th percentile latency.
+	 * @param max - the largest latency.
+	 */
+	@ConstructorProperties({"count", "mean", "p50", "p99", "p999", "max"})
+	public StageLatency(long count, double mean, double p50, double p99, double p999, double max) {
+		this.count = count;
+		this.mean = mean;
+		this.p50 = p50;
+		this.p99 = p99;
+		this.p999 = p999;
+		this.max = max;
+	}
+
+	/**
+	 * Method to summarise a histogram of latencies.
+	 *
+	 * @param h - the histogram (in nanoseconds).
+	 * @return the summary (in microseconds).
+	 */
+	static StageLatency of(LatencyHistogram h) {
+		return new StageLatency(h.getCount(), h.getMean()/1e3, h.getPercentile(50)/1e3, h.getPercentile(99)/1e3,
+				h.getPercentile(99.9)/1e3, h.getMax()/1e3);
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	public double getP50() {
+		return p50;
+	}
+
+	public double getP99() {
+		return p99;
+	}
+
+	public double getP999() {
+		return p999;
+	}
+
+	public double getMax() {
+		return max;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%8d timed, mean %9.1f us, p50 %9.1f us, p99 %9.1f us, p99.9 %9.1f us, max %9.1f us",
+				count, mean, p50, p99, p999, max);
+	}
+
+}
@@ -0,0 +1,79 @@
+package videoProcessing;
+
+/**
+ * Class to record how much work a single processing stage has done, so that the throughput of each stage
+ * can be compared and the bottleneck stage identified.
+ *
+ * @author Simon Dicken (Student ID: 1378818)
+ * @version 2014-07-24
+ */
+public class StageStats {
+
+	private final String name;	//the name of the stage.
+	private volatile int frames;	//the number of frames the stage has processed.
+	private volatile long busyNanos;	//the total time the stage has spent working on frames.
+	private volatile long waitNanos;	//the total time the stage has spent waiting for input or output.
+
+	/**
+	 * Constructor for StageStats.
+	 *
+	 * @param name - the name of the stage.
+	 */
+	public StageStats(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Method to record that the stage has processed a frame.  Only the thread running the stage should
+	 * call this.
+	 *
+	 * @param nanos - the time taken to process the frame.
+	 */
+	void recordFrame(long nanos) {
+		frames++;
+		busyNanos += nanos;
+	}
+
+	/**
+	 * Method to record time the stage spent blocked on its input or output queue.  Only the thread running
+	 * the stage should call this.
+	 *
+	 * @param nanos - the time spent waiting.
+	 */
+	void recordWait(long nanos) {
+		waitNanos += nanos;
+	}
+
+	/**
+	 * Method to calculate the throughput of the stage were it running on its own (i.e. ignoring the time
+	 * spent waiting on the other stages).
+	 *
+	 * @return the number of frames per second the stage can process.
+	 */
+	public double getThroughput() {
+		return (busyNanos>0) ? frames / (busyNanos/1e9) : 0;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getFrames() {
+		return frames;
+	}
+
+	public long getBusyNanos() {
+		return busyNanos;
+	}
+
+	public long getWaitNanos() {
+		return waitNanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%-10s %6d frames, %8.1f fps, busy %8.1f ms, waiting %8.1f ms", name, frames,
+				getThroughput(), busyNanos/1e6, waitNanos/1e6);
+	}
+
+}
@@ -0,0 +1,159 @@
+package videoProcessing;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Class to read back the trace files written by a TraceWriter.  Run on its own, it dumps the records of
+ * the given trace files (or every trace file in the given directories) as comma separated values and prints
+ * out summary statistics of the trace.
+ *
+ * Usage:
+ * 	TraceReader [-csv output.csv] trace...
+ *
+ * @author Simon Dicken (Student ID: 1378818)
+ * @version 2014-08-12
+ */
+public class TraceReader {
+
+	private final MappedByteBuffer buf;	//the contents of the trace file.
+	private final long count;	//the number of records in the file.
+	private long read;	//the number of records read so far.
+
+	/**
+	 * Constructor for TraceReader.
+	 *
+	 * @param traceFile - the trace file to read.
+	 * @throws IOException - if the file could not be read, or is not a trace file.
+	 */
+	public TraceReader(File traceFile) throws IOException {
+		try (FileInputStream in = new FileInputStream(traceFile)) {
+			FileChannel ch = in.getChannel();
+			buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+		}
+		if(buf.remaining()<TraceRecord.HEADER_SIZE || buf.getInt()!=TraceRecord.MAGIC) {
+			throw new IOException(traceFile + " is not a trace file.");
+		}
+		short version = buf.getShort();
+		short recordSize = buf.getShort();
+		if(version!=TraceRecord.VERSION || recordSize!=TraceRecord.RECORD_SIZE) {
+			throw new IOException(traceFile + " has an unsupported trace version.");
+		}
+		count = Math.min(buf.getLong(), buf.remaining() / TraceRecord.RECORD_SIZE);
+	}
+
+	/**
+	 * Method to read the next record.
+	 *
+	 * @param rec - the object to read the record into.
+	 * @return true if a record was read, false if there are no more.
+	 */
+	public boolean next(TraceRecord rec) {
+		if(read>=count) {
+			return false;
+		}
+		rec.read(buf);
+		read++;
+		return true;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public static void main(String[] args) throws IOException {
+
+		File csvFile = null;
+		List<File> files = new ArrayList<File>();
+		for(int i=0; i<args.length; i++) {
+			if(args[i].equals("-csv") && i+1<args.length) {
+				csvFile = new File(args[++i]);
+			} else if(new File(args[i]).isDirectory()) {
+				File[] traces = new File(args[i]).listFiles();
+				Arrays.sort(traces);
+				for(File f : traces) {
+					if(f.getName().endsWith(".trace")) {
+						files.add(f);
+					}
+				}
+			} else {
+				files.add(new File(args[i]));
+			}
+		}
+		if(files.isEmpty()) {
+			System.out.println("Usage: TraceReader [-csv output.csv] trace...");
+			return;
+		}
+
+		PrintStream csv = (csvFile!=null) ? new PrintStream(csvFile) : null;
+		if(csv!=null) {
+			csv.println(TraceRecord.csvHeader());
+		}
+
+		TraceRecord rec = new TraceRecord();
+		int frames = 0, globalSearches = 0, ballpoints = 0, skipped = 0;
+		double totalError = 0;
+		long[] decode = new long[1024], track = new long[1024], ballpoint = new long[1024];
+		for(File f : files) {
+			TraceReader reader = new TraceReader(f);
+			while(reader.next(rec)) {
+				if(csv!=null) {
+					csv.println(rec.toCsv());
+				}
+				if(frames==decode.length) {
+					decode = Arrays.copyOf(decode, frames*2);
+					track = Arrays.copyOf(track, frames*2);
+					ballpoint = Arrays.copyOf(ballpoint, frames*2);
+				}
+				decode[frames] = rec.getDecodeNanos();
+				track[frames] = rec.getTrackNanos();
+				ballpoint[frames] = rec.getBallpointNanos();
+				frames++;
+				globalSearches += rec.isGlobalSearch() ? 1 : 0;
+				ballpoints += rec.isBallpointFound() ? 1 : 0;
+				skipped += rec.isSkipped() ? 1 : 0;
+				totalError += rec.getMatchError();
+			}
+		}
+		if(csv!=null) {
+			csv.close();
+		}
+
+		System.out.println("Frames: " + frames + " in " + files.size() + " trace files");
+		if(frames==0) {
+			return;
+		}
+		System.out.println(String.format("Whole frame searches: %d (%.1f%%), ballpoints found: %d (%.1f%%), "
+				+ "skipped: %d", globalSearches, 100.0*globalSearches/frames, ballpoints, 100.0*ballpoints/frames,
+				skipped));
+		System.out.println(String.format("Mean template match error: %.1f", totalError/frames));
+		printTimings("decode", decode, frames);
+		printTimings("track", track, frames);
+		printTimings("ballpoint", ballpoint, frames);
+	}
+
+	/**
+	 * Method to print out the mean, median, 95th percentile and maximum of a set of timings.
+	 *
+	 * @param name - the name of the stage timed.
+	 * @param nanos - the timings (in nanoseconds).  The first n are sorted in place.
+	 * @param n - the number of timings.
+	 */
+	private static void printTimings(String name, long[] nanos, int n) {
+		Arrays.sort(nanos, 0, n);
+		double total = 0;
+		for(int i=0; i<n; i++) {
+			total += nanos[i];
+		}
+		System.out.println(String.format("%-10s mean %8.3f ms, median %8.3f ms, 95th %8.3f ms, max %8.3f ms", name,
+				total/n/1e6, nanos[n/2]/1e6, nanos[(int) Math.min(n-1, Math.ceil(n*0.95)-1)]/1e6, nanos[n-1]/1e6));
+	}
+
+}
@@ -0,0 +1,167 @@
+package videoProcessing;
+
+import java.nio.ByteBuffer;
+
+import strokeData.Coord;
+
+/**
+ * Class representing one record of a trace file written by a TraceWriter.  Each processed frame is stored
+ * as a fixed-width record of RECORD_SIZE bytes:
+ * 	-	int frame number, int flags (see the FLAG_ constants).
+ * 	-	int x, y of the predicted template position.
+ * 	-	int x, y of the actual template position.
+ * 	-	int x, y of the ballpoint (-1 if no ballpoint was found).
+ * 	-	long template match error.
+ * 	-	long nanoseconds taken to read, track and locate the ballpoint in the frame.
+ *
+ * A trace file starts with a header of HEADER_SIZE bytes: int MAGIC, short VERSION, short RECORD_SIZE and
+ * long number of records in the file.  The file may be longer than the records it holds.
+ *
+ * @author Simon Dicken (Student ID: 1378818)
+ * @version 2014-08-12
+ */
+public class TraceRecord {
+
+	public static final int MAGIC = 0x5354524B;	//"STRK".
+	public static final short VERSION = 1;
+	public static final int HEADER_SIZE = 16;
+	public static final int COUNT_OFFSET = 8;	//the position of the record count in the header.
+	public static final int RECORD_SIZE = 64;
+
+	public static final int FLAG_GLOBAL_SEARCH = 1;	//the whole frame was searched for the template.
+	public static final int FLAG_BALLPOINT_FOUND = 2;	//a ballpoint was found.
+	public static final int FLAG_SKIPPED = 4;	//the frame was skipped to keep up with real time.
+
+	private int frameNum;
+	private int flags;
+	private int predictedX, predictedY;
+	private int actualX, actualY;
+	private int ballpointX, ballpointY;
+	private long matchError;
+	private long decodeNanos, trackNanos, ballpointNanos;
+
+	/**
+	 * Method to write the trace record of a processed frame.
+	 *
+	 * @param rec - the record of the frame.
+	 * @param buf - the buffer to write to (at least RECORD_SIZE bytes must remain).
+	 */
+	static void write(FrameRecord rec, ByteBuffer buf) {
+		Coord predicted = rec.getPredictedPos();
+		Coord actual = rec.getGlobalPos();
+		Coord bPoint = rec.getBPoint();
+		int flags = (rec.isGlobalSearch() ? FLAG_GLOBAL_SEARCH : 0) | ((bPoint!=null) ? FLAG_BALLPOINT_FOUND : 0)
+				| (rec.isSkipped() ? FLAG_SKIPPED : 0);
+
+		buf.putInt(rec.getFrameNum());
+		buf.putInt(flags);
+		buf.putInt(predicted.getX());
+		buf.putInt(predicted.getY());
+		buf.putInt(actual.getX());
+		buf.putInt(actual.getY());
+		buf.putInt((bPoint!=null) ? bPoint.getX() : -1);
+		buf.putInt((bPoint!=null) ? bPoint.getY() : -1);
+		buf.putLong(rec.getMatchError());
+		buf.putLong(rec.getDecodeNanos());
+		buf.putLong(rec.getTrackNanos());
+		buf.putLong(rec.getBallpointNanos());
+	}
+
+	/**
+	 * Method to read the next record from a buffer into this object.
+	 *
+	 * @param buf - the buffer to read from (at least RECORD_SIZE bytes must remain).
+	 */
+	void read(ByteBuffer buf) {
+		frameNum = buf.getInt();
+		flags = buf.getInt();
+		predictedX = buf.getInt();
+		predictedY = buf.getInt();
+		actualX = buf.getInt();
+		actualY = buf.getInt();
+		ballpointX = buf.getInt();
+		ballpointY = buf.getInt();
+		matchError = buf.getLong();
+		decodeNanos = buf.getLong();
+		trackNanos = buf.getLong();
+		ballpointNanos = buf.getLong();
+	}
+
+	/**
+	 * Method to write the record as a line of comma separated values, in the same order as csvHeader().
+	 *
+	 * @return the line.
+	 */
+	public String toCsv() {
+		return frameNum + "," + isGlobalSearch() + "," + isBallpointFound() + "," + isSkipped() + ","
+				+ predictedX + "," + predictedY + "," + actualX + "," + actualY + "," + ballpointX + ","
+				+ ballpointY + "," + matchError + "," + decodeNanos + "," + trackNanos + "," + ballpointNanos;
+	}
+
+	/**
+	 * Method to return the header line for the comma separated values written by toCsv().
+	 *
+	 * @return the header line.
+	 */
+	public static String csvHeader() {
+		return "frame,globalSearch,ballpointFound,skipped,predictedX,predictedY,actualX,actualY,ballpointX,"
+				+ "ballpointY,matchError,decodeNanos,trackNanos,ballpointNanos";
+	}
+
+	public int getFrameNum() {
+		return frameNum;
+	}
+
+	public boolean isGlobalSearch() {
+		return (flags & FLAG_GLOBAL_SEARCH)!=0;
+	}
+
+	public boolean isBallpointFound() {
+		return (flags & FLAG_BALLPOINT_FOUND)!=0;
+	}
+
+	public boolean isSkipped() {
+		return (flags & FLAG_SKIPPED)!=0;
+	}
+
+	public int getPredictedX() {
+		return predictedX;
+	}
+
+	public int getPredictedY() {
+		return predictedY;
+	}
+
+	public int getActualX() {
+		return actualX;
+	}
+
+	public int getActualY() {
+		return actualY;
+	}
+
+	public int getBallpointX() {
+		return ballpointX;
+	}
+
+	public int getBallpointY() {
+		return ballpointY;
+	}
+
+	public long getMatchError() {
+		return matchError;
+	}
+
+	public long getDecodeNanos() {
+		return decodeNanos;
+	}
+
+	public long getTrackNanos() {
+		return trackNanos;
+	}
+
+	public long getBallpointNanos() {
+		return ballpointNanos;
+	}
+
+}
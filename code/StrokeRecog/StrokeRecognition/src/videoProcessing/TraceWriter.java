@@ -0,0 +1,285 @@
+package videoProcessing;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class to write a binary trace of the processed frames (see TraceRecord for the format).  The processing
+ * thread only copies each frame's record into an in-memory buffer; full buffers are written out on a
+ * background thread, so tracing never waits on the disk.  If the writer thread falls so far behind that
+ * every buffer is full, records are dropped (and counted) rather than holding up the processing.
+ *
+ * The trace is written to memory-mapped files named base-0001.trace, base-0002.trace, etc. in the trace
+ * directory.  A new file is started once the current one reaches the maximum file size, and only the most
+ * recent files are kept.  The trace can be read back with TraceReader.
+ *
+ * Some systems (e.g. Windows) do not allow a file to be deleted while it is still memory-mapped, and the 
+ * mapping is only released once the buffer has been garbage collected.  Old files which cannot be deleted
+ * straight away are retried each time a new file is started and when the writer is closed, so until then
+ * (or if they are still mapped at the end) a few more than the maximum number of files may be left.
+ *
+ * @author Simon Dicken (Student ID: 1378818)
+ * @version 2014-08-12
+ */
+public class TraceWriter {
+
+	private static final int BUFFER_RECORDS = 256;	//the number of records in each in-memory buffer.
+	private static final int BUFFERS = 8;	//the number of in-memory buffers.
+
+	//buffer put on the full queue to tell the writer thread to stop.
+	private static final ByteBuffer CLOSE = ByteBuffer.allocate(0);
+
+	private final File dir;	//the directory the trace files are written to.
+	private final String baseName;	//the start of the trace file names.
+	private final long maxFileBytes;	//the size of each trace file.
+	private final int maxFiles;	//the number of trace files kept (0 to keep them all).
+
+	private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<ByteBuffer>(BUFFERS);
+	private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<ByteBuffer>(BUFFERS+1);
+	private ByteBuffer current;	//the buffer records are being added to (null if none).
+	private boolean closed;	//set once close() has been called.
+	private final AtomicLong written = new AtomicLong();	//the number of records written to file.
+	private final AtomicLong dropped = new AtomicLong();	//the number of records dropped.
+	private final Thread thread;	//the thread writing the buffers to file.
+	private volatile IOException failure;	//the error that stopped the writer thread (null if none).
+
+	//the trace file being written (only used by the writer thread).
+	private int fileIndex;
+	private RandomAccessFile file;
+	private MappedByteBuffer mapped;
+	private long fileRecords;	//the number of records in the current file.
+	private final List<File> undeleted = new ArrayList<File>();	//old files which could not be deleted yet.
+
+	/**
+	 * Constructor for TraceWriter.  Starts the writer thread.
+	 *
+	 * @param dir - the directory to write the trace files to (created if necessary).
+	 * @param baseName - the start of the trace file names.
+	 * @param maxFileBytes - the size of each trace file.
+	 * @param maxFiles - the number of trace files to keep (0 to keep them all).
+	 * @throws IllegalArgumentException - if a file cannot hold at least one buffer of records.
+	 */
+	public TraceWriter(File dir, String baseName, long maxFileBytes, int maxFiles) {
+		if(maxFileBytes < TraceRecord.HEADER_SIZE + (long) BUFFER_RECORDS*TraceRecord.RECORD_SIZE
+				|| maxFileBytes > Integer.MAX_VALUE || maxFiles<0) {
+			throw new IllegalArgumentException("Invalid trace file settings.");
+		}
+		this.dir = dir;
+		this.baseName = baseName;
+		this.maxFileBytes = maxFileBytes;
+		this.maxFiles = maxFiles;
+		dir.mkdirs();
+		for(int i=0; i<BUFFERS; i++) {
+			free.add(ByteBuffer.allocateDirect(BUFFER_RECORDS * TraceRecord.RECORD_SIZE));
+		}
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeBuffers();
+			}
+		}, "trace-writer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Method to add the record of a processed frame to the trace.  Never waits for the disk.
+	 *
+	 * @param rec - the record of the frame.
+	 */
+	synchronized void append(FrameRecord rec) {
+		if(closed) {
+			return;
+		}
+		if(current==null) {
+			current = free.poll();
+			if(current==null) {
+				dropped.incrementAndGet();
+				return;
+			}
+		}
+		TraceRecord.write(rec, current);
+		if(!current.hasRemaining()) {
+			full.add(current);
+			current = null;
+		}
+	}
+
+	/**
+	 * Method run by the writer thread.  Writes each full buffer to the trace file until closed.
+	 */
+	private void writeBuffers() {
+		try {
+			while(true) {
+				ByteBuffer buf = full.take();
+				if(buf==CLOSE) {
+					break;
+				}
+				buf.flip();
+				if(failure==null) {
+					try {
+						writeBuffer(buf);
+					} catch (IOException e) {
+						//stop writing, but keep recycling the buffers so the processing is not held up.
+						failure = e;
+					}
+				}
+				if(failure!=null) {
+					dropped.addAndGet(buf.remaining() / TraceRecord.RECORD_SIZE);
+				}
+				buf.clear();
+				free.add(buf);
+			}
+		} catch (InterruptedException e) {
+			//closing without waiting.
+		}
+		try {
+			closeFile();
+		} catch (IOException e) {
+			failure = e;
+		}
+		deleteOldFiles();
+	}
+
+	/**
+	 * Method to write a buffer of records to the trace file, starting a new file if there is not room.
+	 *
+	 * @param buf - the buffer (flipped, ready to read).
+	 * @throws IOException - if the file could not be written.
+	 */
+	private void writeBuffer(ByteBuffer buf) throws IOException {
+		if(mapped==null || mapped.remaining()<buf.remaining()) {
+			closeFile();
+			openFile();
+		}
+		int records = buf.remaining() / TraceRecord.RECORD_SIZE;
+		mapped.put(buf);
+		fileRecords += records;
+		mapped.putLong(TraceRecord.COUNT_OFFSET, fileRecords);
+		written.addAndGet(records);
+	}
+
+	/**
+	 * Method to start the next trace file, deleting the oldest one if there are too many.
+	 *
+	 * @throws IOException - if the file could not be created.
+	 */
+	private void openFile() throws IOException {
+		fileIndex++;
+		if(maxFiles>0 && fileIndex>maxFiles) {
+			undeleted.add(traceFile(fileIndex - maxFiles));
+			deleteOldFiles();
+		}
+		long records = (maxFileBytes - TraceRecord.HEADER_SIZE) / TraceRecord.RECORD_SIZE;
+		file = new RandomAccessFile(traceFile(fileIndex), "rw");
+		mapped = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+				TraceRecord.HEADER_SIZE + records*TraceRecord.RECORD_SIZE);
+		mapped.putInt(TraceRecord.MAGIC);
+		mapped.putShort(TraceRecord.VERSION);
+		mapped.putShort((short) TraceRecord.RECORD_SIZE);
+		mapped.putLong(0);
+		fileRecords = 0;
+	}
+
+	/**
+	 * Method to delete the old trace files which are no longer kept.  A file which cannot be deleted yet 
+	 * (because it is still mapped) is kept in the list to be tried again later.
+	 */
+	private void deleteOldFiles() {
+		Iterator<File> it = undeleted.iterator();
+		while(it.hasNext()) {
+			File f = it.next();
+			if(f.delete() || !f.exists()) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Method to finish the current trace file (if any), trimming off the unused space where possible.
+	 *
+	 * @throws IOException - if the file could not be closed.
+	 */
+	private void closeFile() throws IOException {
+		if(file==null) {
+			return;
+		}
+		mapped.force();
+		mapped = null;
+		try {
+			file.getChannel().truncate(TraceRecord.HEADER_SIZE + fileRecords*TraceRecord.RECORD_SIZE);
+		} catch (IOException e) {
+			//some systems do not allow a mapped file to be truncated - the header says how much is used.
+		}
+		file.close();
+		file = null;
+	}
+
+	/**
+	 * Method to return the path of a trace file.
+	 *
+	 * @param index - the number of the file.
+	 * @return the trace file.
+	 */
+	private File traceFile(int index) {
+		return new File(dir, String.format("%s-%04d.trace", baseName, index));
+	}
+
+	/**
+	 * Method to write out the records added so far and stop the writer thread.  Waits for the trace files
+	 * to be finished.
+	 *
+	 * @throws IOException - if writing the trace failed.
+	 */
+	public void close() throws IOException {
+		synchronized(this) {
+			if(closed) {
+				return;
+			}
+			closed = true;
+			if(current!=null && current.position()>0) {
+				full.add(current);
+			}
+			current = null;
+			full.add(CLOSE);
+		}
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			thread.interrupt();
+			Thread.currentThread().interrupt();
+		}
+		if(failure!=null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * getter for the number of records written to the trace files.
+	 *
+	 * @return the number of records written.
+	 */
+	public long getWritten() {
+		return written.get();
+	}
+
+	/**
+	 * getter for the number of records dropped because the writer thread had fallen behind or failed.
+	 *
+	 * @return the number of records dropped.
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+}
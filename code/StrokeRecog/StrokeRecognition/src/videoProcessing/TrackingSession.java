@@ -0,0 +1,314 @@
+package videoProcessing;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class representing one video being processed by a SessionManager.  The session has no thread of its own:
+ * its work is split into short tasks which are run on the manager's shared thread pools.
+ * 	-	decode tasks (on the I/O pool) read frames from the input into the session's frame queue.
+ * 	-	process tasks (on the CPU pool) take frames from the queue and track them.
+ *
+ * At most one task of each kind is queued or running for a session at any time, so the frames are read and
+ * processed strictly in order.  Each task only handles a few frames before giving way, so the sessions take
+ * turns on the pools.  The frame queue is bounded: once it is full no more frames are read until some have
+ * been processed, so a session whose processing falls behind does not fill memory with decoded frames.
+ *
+ * The ProcessVideo's frame listeners are still called on its own listener thread, not on the pools.
+ *
+ * Once the session has finished (however it finished) and none of its tasks are still running, the video's
+ * input is closed (see ProcessVideo.closeInput()), so a finished session holds no decoder or camera.
+ *
+ * @author Simon Dicken (Student ID: 1378818)
+ * @version 2014-08-08
+ */
+public class TrackingSession {
+
+	private static final int DECODES_PER_TURN = 4;	//the most frames a decode task reads before giving way.
+	private static final int FRAMES_PER_TURN = 2;	//the most frames a process task handles before giving way.
+
+	private final String name;	//the name of the session (used in the summary).
+	private final ProcessVideo pv;	//the video being processed.
+	private final Executor cpuPool;	//the pool which runs the process tasks.
+	private final Executor ioPool;	//the pool which runs the decode tasks.
+	private final BlockingQueue<FrameRecord> frames;	//frames read but not yet processed.
+	private final StageStats decodeStats = new StageStats("decode");
+	private final StageStats processStats = new StageStats("process");
+	private final CountDownLatch done = new CountDownLatch(1);	//released once the session has finished.
+
+	//whether a decode or process task is queued or running.  Only changed while holding the session's lock.
+	private boolean decodeScheduled;
+	private boolean processScheduled;
+	//the times (nanoseconds) at which the last decode and process tasks were handed to their pools.
+	private long decodeSubmitted;
+	private long processSubmitted;
+
+	private boolean begun;	//whether the first frame has been processed (only used by the process tasks).
+	private boolean inputClosed;	//whether the input has been closed.  Only changed while holding the lock.
+	private volatile boolean endOfInput;	//set once the input has run out of frames.
+	private volatile boolean cancelled;	//set to stop the session early.
+	private volatile boolean finished;	//set once the session will do no more work.
+	private volatile Throwable failure;	//the error which stopped the session (null if none).
+	private volatile int maxQueued;	//the most frames there have been in the frame queue at once.
+	private long startNanos;	//the time the session was started.
+	private volatile long finishNanos;	//the time the session finished.
+
+	/**
+	 * Constructor for TrackingSession.
+	 *
+	 * @param name - the name of the session.
+	 * @param pv - the video to process.
+	 * @param queueSize - the most frames which can be read ahead of the processing.
+	 * @param cpuPool - the pool to run the process tasks on.
+	 * @param ioPool - the pool to run the decode tasks on.
+	 */
+	TrackingSession(String name, ProcessVideo pv, int queueSize, Executor cpuPool, Executor ioPool) {
+		if(queueSize<1) {
+			throw new IllegalArgumentException("The frame queue must hold at least one frame.");
+		}
+		this.name = name;
+		this.pv = pv;
+		this.cpuPool = cpuPool;
+		this.ioPool = ioPool;
+		frames = new ArrayBlockingQueue<FrameRecord>(queueSize);
+	}
+
+	/**
+	 * Method to start the session by reading its first frames.
+	 */
+	void start() {
+		startNanos = System.nanoTime();
+		reschedule();
+	}
+
+	/**
+	 * Method to hand the next decode and/or process task to the pools, if there is work for them and one is
+	 * not already scheduled.  Once the session has been cancelled or has failed, it is finished as soon as
+	 * neither task is scheduled.  Once it is finished and neither task is scheduled, the input is closed.
+	 */
+	private synchronized void reschedule() {
+		if(finished) {
+			if(!inputClosed && !decodeScheduled && !processScheduled) {
+				inputClosed = true;
+				pv.closeInput();
+			}
+			return;
+		}
+		if(cancelled || failure!=null) {
+			if(!decodeScheduled && !processScheduled) {
+				complete();
+				inputClosed = true;
+				pv.closeInput();
+			}
+			return;
+		}
+		if(!decodeScheduled && !endOfInput && frames.remainingCapacity()>0) {
+			decodeScheduled = true;
+			decodeSubmitted = System.nanoTime();
+			ioPool.execute(new Runnable() {
+				@Override
+				public void run() {
+					decode();
+				}
+			});
+		}
+		if(!processScheduled && (!frames.isEmpty() || endOfInput)) {
+			processScheduled = true;
+			processSubmitted = System.nanoTime();
+			cpuPool.execute(new Runnable() {
+				@Override
+				public void run() {
+					process();
+				}
+			});
+		}
+	}
+
+	/**
+	 * The decode task: reads frames into the frame queue until the queue is full, the input runs out or the
+	 * task has had its turn.
+	 */
+	private void decode() {
+		long start = System.nanoTime();
+		decodeStats.recordWait(start - decodeSubmitted);
+		try {
+			for(int i=0; i<DECODES_PER_TURN && !cancelled && frames.remainingCapacity()>0; i++) {
+				if(!pv.frameAvailable()) {
+					endOfInput = true;
+					break;
+				}
+				long frameStart = System.nanoTime();
+				FrameRecord rec = pv.nextFrame();
+				decodeStats.recordFrame(System.nanoTime() - frameStart);
+				frames.add(rec);
+				maxQueued = Math.max(maxQueued, frames.size());
+				//start processing straight away rather than waiting for the rest of the turn.
+				reschedule();
+			}
+		} catch (Throwable t) {
+			failure = t;
+		}
+		synchronized(this) {
+			decodeScheduled = false;
+		}
+		reschedule();
+	}
+
+	/**
+	 * The process task: processes frames from the frame queue until it is empty or the task has had its
+	 * turn.  Once the input has ended and every frame has been processed, the processing is finished off.
+	 */
+	private void process() {
+		long start = System.nanoTime();
+		processStats.recordWait(start - processSubmitted);
+		try {
+			for(int i=0; i<FRAMES_PER_TURN && !cancelled; i++) {
+				FrameRecord rec = frames.poll();
+				if(rec==null) {
+					break;
+				}
+				long frameStart = System.nanoTime();
+				if(begun) {
+					pv.processFrame(rec);
+				} else {
+					pv.beginProcessing(rec);
+					begun = true;
+				}
+				processStats.recordFrame(System.nanoTime() - frameStart);
+			}
+			//no more frames are added once endOfInput is set, so an empty queue means they are all done.
+			if(!cancelled && endOfInput && frames.isEmpty()) {
+				if(begun) {
+					pv.finishProcessing();
+				}
+				complete();
+			}
+		} catch (Throwable t) {
+			failure = t;
+		}
+		synchronized(this) {
+			processScheduled = false;
+		}
+		reschedule();
+	}
+
+	/**
+	 * Method to mark the session as finished, handing back any frames that were never processed.  The 
+	 * video's metrics (if any) are removed from JMX, so that the session's name can be reused and the video
+	 * is not kept alive by the MBean server.  They can still be read through ProcessVideo.getMetrics().
+	 */
+	private synchronized void complete() {
+		if(finished) {
+			return;
+		}
+		finished = true;
+		finishNanos = System.nanoTime();
+		FrameRecord rec;
+		while((rec = frames.poll())!=null) {
+			pv.releaseFrame(rec.getImg());
+		}
+		ProcessingMetrics metrics = pv.getMetrics();
+		if(metrics!=null) {
+			metrics.unregister();
+		}
+		done.countDown();
+	}
+
+	/**
+	 * Method to stop the session early.  Any frame being processed is finished, but no more are read or
+	 * processed.
+	 */
+	public void cancel() {
+		cancelled = true;
+		reschedule();
+	}
+
+	/**
+	 * Method to wait for the session to finish.
+	 *
+	 * @param timeout - the longest time to wait.
+	 * @param unit - the units of the timeout.
+	 * @return true if the session has finished, false if the timeout ran out first.
+	 * @throws InterruptedException - if interrupted while waiting.
+	 */
+	public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+		return done.await(timeout, unit);
+	}
+
+	/**
+	 * Method to check whether the session has finished (because all the frames have been processed, it was
+	 * cancelled or it failed).
+	 *
+	 * @return true if the session has finished.
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * getter for the error which stopped the session.
+	 *
+	 * @return the error, or null if the session has not failed.
+	 */
+	public Throwable getFailure() {
+		return failure;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public ProcessVideo getProcessVideo() {
+		return pv;
+	}
+
+	/**
+	 * getter for the statistics of the decode tasks.  The waiting time is the time the tasks spent waiting
+	 * for a thread in the I/O pool.
+	 *
+	 * @return the decode statistics.
+	 */
+	public StageStats getDecodeStats() {
+		return decodeStats;
+	}
+
+	/**
+	 * getter for the statistics of the process tasks.  The waiting time is the time the tasks spent waiting
+	 * for a thread in the CPU pool (i.e. waiting for the other sessions to have their turn).
+	 *
+	 * @return the process statistics.
+	 */
+	public StageStats getProcessStats() {
+		return processStats;
+	}
+
+	/**
+	 * getter for the most frames there have been in the session's frame queue at once.
+	 *
+	 * @return the highest number of frames queued.
+	 */
+	public int getMaxQueued() {
+		return maxQueued;
+	}
+
+	/**
+	 * getter for how long the session has been running (or ran for, once finished).
+	 *
+	 * @return the elapsed time in milliseconds.
+	 */
+	public long getElapsedMillis() {
+		long end = finished ? finishNanos : System.nanoTime();
+		return (end - startNanos) / 1000000;
+	}
+
+	@Override
+	public String toString() {
+		String state = (failure!=null) ? "failed" : cancelled ? "cancelled" : finished ? "finished" : "running";
+		return String.format("%s (%s, %d ms, at most %d frames queued)%n    %s%n    %s", name, state,
+				getElapsedMillis(), maxQueued, decodeStats, processStats);
+	}
+
+}